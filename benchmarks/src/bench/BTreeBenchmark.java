@@ -0,0 +1,79 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class BTreeBenchmark {
+    // Compares insert and lookup time of a balanced binary Tree with BTrees of several fanouts
+    // Each tree's height is printed once it is built, in the run's output for that fork
+    // Usage: java -jar benchmarks/target/benchmarks.jar BTreeBenchmark [-p fanout=...] [-p size=...]
+
+    private static final int QUERIES = 1 << 20;    // Lookups cycle through this many precomputed keys
+
+    @Param({"AVL", "16", "64", "256"})
+    public String fanout;
+
+    @Param({"1000000", "10000000"})
+    public int size;
+
+    private Integer[] list;
+    private Integer[] queries;
+    private OrderedTree<Integer> tree;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random generator = new Random(436543);
+        list = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            list[i] = generator.nextInt();
+        }
+        // Half present, half random and almost surely absent
+        queries = new Integer[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = generator.nextBoolean() ? list[generator.nextInt(size)] : generator.nextInt();
+        }
+        tree = insertAll();
+        System.out.println(fanout + " height " + tree.height());
+    }
+
+    // The same tree the insert benchmark times
+    private OrderedTree<Integer> insertAll() {
+        OrderedTree<Integer> built = fanout.equals("AVL")
+                ? new Tree<Integer>("avl", true)
+                : new BTree<Integer>("btree", Integer.parseInt(fanout));
+        for (Integer x : list) {
+            built.bstInsert(x);
+        }
+        return built;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public OrderedTree<Integer> insert() {
+        return insertAll();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean contains() {
+        return tree.contains(queries[next++ & (QUERIES - 1)]);
+    }
+}
@@ -0,0 +1,26 @@
+package bench;
+
+import java.io.IOException;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class Benchmarks {
+    // Runs the JMH benchmarks with the GC profiler always on, so every result comes with its
+    // allocation rate: gc.alloc.rate in MB/s and gc.alloc.rate.norm in bytes per operation
+    // Usage: java -jar benchmarks/target/benchmarks.jar [JMH options] [benchmark regex]
+    //   e.g. java -jar benchmarks/target/benchmarks.jar TreeOperationsBenchmark.contains -p shape=RANDOM
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp() || options.shouldList() || options.shouldListWithParams()
+                || options.shouldListProfilers() || options.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+        new Runner(new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).build()).run();
+    }
+}
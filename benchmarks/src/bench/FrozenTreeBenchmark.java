@@ -0,0 +1,79 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class FrozenTreeBenchmark {
+    // Compares lookups in a balanced pointer tree with the same keys frozen in Eytzinger order,
+    // and with binary search over a sorted int array as a baseline
+    // Usage: java -jar benchmarks/target/benchmarks.jar FrozenTreeBenchmark [-p size=...]
+
+    private static final int QUERIES = 1 << 20;    // Lookups cycle through this many precomputed keys
+
+    @Param({"1000000", "10000000", "100000000"})
+    public int size;
+
+    private Tree<Integer> tree;
+    private FrozenTree<Integer> frozen;
+    private int[] sorted;
+    private Integer[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        // Even keys, so about half the queries miss
+        Integer[] list = new Integer[size];
+        sorted = new int[size];
+        for (int i = 0; i < size; i++) {
+            list[i] = 2 * i;
+            sorted[i] = 2 * i;
+        }
+        tree = new Tree<Integer>(list, "tree", true, true);
+        frozen = tree.freeze();
+
+        // Boxed up front, so no search times an allocation
+        Random generator = new Random(436543);
+        queries = new Integer[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = generator.nextInt(2 * size);
+        }
+    }
+
+    @Benchmark
+    public boolean treeContains() {
+        return tree.contains(queries[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public boolean frozenContains() {
+        return frozen.contains(queries[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public Integer frozenFloor() {
+        return frozen.floor(queries[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public int binarySearch() {
+        return Arrays.binarySearch(sorted, queries[next++ & (QUERIES - 1)]);
+    }
+}
@@ -0,0 +1,53 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class QuadraticOperationsBenchmark {
+    // The Tree operations that are O(n^2) on a degenerate tree: ordered construction, which
+    // inserts the sorted keys one at a time, and toString, which indents each line by its depth
+    // The default sizes stop where a degenerate tree still finishes; random and balanced trees
+    // go further with e.g. -p shape=RANDOM,BALANCED -p size=100000,1000000,10000000
+    // Usage: java -jar benchmarks/target/benchmarks.jar QuadraticOperationsBenchmark [-p shape=...] [-p size=...]
+
+    @Param({"DEGENERATE", "RANDOM", "BALANCED"})
+    public TreeShape shape;
+
+    @Param({"1000", "10000"})
+    public int size;
+
+    private Integer[] keys;
+    private Tree<Integer> tree;
+
+    @Setup
+    public void setUp() {
+        keys = shape.keys(size);
+        tree = shape.build(keys);
+    }
+
+    @Benchmark
+    public Tree<Integer> constructOrdered() {
+        return new Tree<Integer>(keys, "ordered", true);
+    }
+
+    @Benchmark
+    public String toStringTree() {
+        return tree.toString();
+    }
+}
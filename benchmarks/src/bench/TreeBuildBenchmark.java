@@ -0,0 +1,60 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TreeBuildBenchmark {
+    // Compares building an ordered tree one bstInsert at a time with the sort-then-build bulk loader
+    // Keys are random: per-element insert on sorted keys is O(n^2) and would never finish at these sizes
+    // Usage: java -jar benchmarks/target/benchmarks.jar TreeBuildBenchmark [-p size=...]
+
+    @Param({"100000", "1000000", "10000000"})
+    public int size;
+
+    private Integer[] list;
+
+    @Setup
+    public void setUp() {
+        Random generator = new Random(436543);
+        list = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            list[i] = generator.nextInt();
+        }
+    }
+
+    @Benchmark
+    public Tree<Integer> bstInsert() {
+        return new Tree<Integer>(list, "plain", true);
+    }
+
+    @Benchmark
+    public Tree<Integer> avlInsert() {
+        Tree<Integer> balanced = new Tree<Integer>("avl", true);
+        for (Integer x : list) {
+            balanced.bstInsert(x);
+        }
+        return balanced;
+    }
+
+    @Benchmark
+    public Tree<Integer> bulkLoad() {
+        return new Tree<Integer>(list, "bulk", true, true);
+    }
+}
@@ -0,0 +1,137 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TreeOperationsBenchmark {
+    // Every public Tree operation on degenerate, random and balanced trees of 10^3 to 10^7 nodes
+    // Ordered construction and toString are O(n^2) on a degenerate tree, so they are measured
+    // separately, on smaller trees, by QuadraticOperationsBenchmark
+    // Usage: java -jar benchmarks/target/benchmarks.jar TreeOperationsBenchmark [-p shape=...] [-p size=...]
+
+    private static final int QUERIES = 1 << 12;    // Lookups cycle through this many precomputed arguments
+
+    @Param({"DEGENERATE", "RANDOM", "BALANCED"})
+    public TreeShape shape;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    private Integer[] keys;
+    private Tree<Integer> tree;
+    private long threshold;     // pruneK threshold: about half the height's worth of mid-sized keys
+    private Integer[] targets;  // Half present, half falling in the gaps
+    private Integer[] pairs;    // lca arguments, taken two at a time
+    private int[] levels;       // nodesInLevel arguments
+    private int next;
+
+    @Setup
+    public void setUp() {
+        keys = shape.keys(size);
+        tree = shape.build(keys);
+        int height = tree.height();
+        threshold = 4L * size * ((height + 1) / 2);
+
+        // Boxed up front, so no operation times an allocation of its own argument
+        Random generator = new Random(436543);
+        targets = new Integer[QUERIES];
+        pairs = new Integer[2 * QUERIES];
+        levels = new int[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            targets[i] = 4 * generator.nextInt(size) + generator.nextInt(2);
+            pairs[2 * i] = 4 * generator.nextInt(size);
+            pairs[2 * i + 1] = 4 * generator.nextInt(size);
+            levels[i] = generator.nextInt(height + 1);
+        }
+    }
+
+    // A fresh tree for each call of an operation that changes it, built outside the timing
+    // At the smallest sizes the per call setup adds some timer noise, as JMH warns for Level.Invocation
+    // The GC profiler still counts what the setup allocates; freshTree measures just that, to subtract
+    @State(Scope.Thread)
+    public static class Fresh {
+        Tree<Integer> tree;
+
+        @Setup(Level.Invocation)
+        public void build(TreeOperationsBenchmark trees) {
+            tree = trees.shape.build(trees.keys);
+        }
+    }
+
+    @Benchmark
+    public Tree<Integer> constructUnordered() {
+        return new Tree<Integer>(keys, "unordered", false);
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return tree.contains(targets[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public String lca() {
+        int i = 2 * (next++ & (QUERIES - 1));
+        return tree.lca(pairs[i], pairs[i + 1]);
+    }
+
+    @Benchmark
+    public int height() {
+        return tree.height();
+    }
+
+    @Benchmark
+    public Integer deepestNode() {
+        return tree.deepestNode();
+    }
+
+    @Benchmark
+    public int nodesInLevel() {
+        return tree.nodesInLevel(levels[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public Integer countBST() {
+        return tree.countBST();
+    }
+
+    // Baseline for the operations below: takes a fresh tree and does nothing with it
+    @Benchmark
+    public int freshTree(Fresh fresh) {
+        return fresh.tree.size();
+    }
+
+    @Benchmark
+    public int pruneK(Fresh fresh) {
+        return fresh.tree.pruneK(x -> x, threshold);
+    }
+
+    @Benchmark
+    public int balanceTree(Fresh fresh) {
+        fresh.tree.balanceTree();
+        return fresh.tree.size();
+    }
+
+    @Benchmark
+    public int keepRange(Fresh fresh) {
+        fresh.tree.keepRange(size, 3 * size);
+        return fresh.tree.size();
+    }
+}
@@ -0,0 +1,55 @@
+package bench;
+
+import java.util.Random;
+
+/**
+ * Shapes of ordered tree for the benchmarks to run on
+ * Keys are spread out 4 apart, so there are gaps to search for
+ */
+public enum TreeShape {
+    DEGENERATE,    // Every node is its parent's right child, as inserting sorted keys makes
+    RANDOM,        // Shuffled keys inserted one at a time
+    BALANCED;      // Shuffled keys bulk loaded in AVL balanced mode
+
+    /**
+     * Keys for a tree of this shape
+     * @param n number of keys
+     * @return the keys, sorted for a degenerate tree and shuffled otherwise
+     */
+    Integer[] keys(int n) {
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = 4 * i;
+        }
+        if (this != DEGENERATE) {
+            Random generator = new Random(436543);
+            for (int i = n - 1; i > 0; i--) {
+                int j = generator.nextInt(i + 1);
+                Integer hold = keys[i];
+                keys[i] = keys[j];
+                keys[j] = hold;
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Build an ordered tree of this shape
+     * A degenerate tree is built from its traversals, which are both the sorted keys, since
+     * inserting them one at a time would take O(n^2); it comes out ordered all the same
+     * @param keys from keys()
+     * @return the new tree
+     */
+    Tree<Integer> build(Integer[] keys) {
+        switch (this) {
+            case DEGENERATE:
+                Tree<Integer> chain = new Tree<Integer>("degenerate");
+                chain.buildTreeTraversals(keys, keys);
+                return chain;
+            case RANDOM:
+                return new Tree<Integer>(keys, "random", true);
+            default:
+                return new Tree<Integer>(keys, "balanced", true, true);
+        }
+    }
+}
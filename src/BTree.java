@@ -0,0 +1,431 @@
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Ordered tree of wide nodes (a B+ tree), with the same operations as Tree
+ * Each node holds up to fanout - 1 sorted keys, and an internal node up to fanout children,
+ * so a tree of n keys is about log(n) / log(fanout) levels deep instead of log2(n),
+ * and each level is one node's worth of adjacent keys rather than a pointer per key
+ * All keys are kept in the leaves, which are linked in order for range scans;
+ * internal keys only separate children: separator i is the smallest key under child i + 1
+ */
+public class BTree<E extends Comparable<? super E>> implements OrderedTree<E> {
+    public static final int DEFAULT_FANOUT = 64;
+
+    private final int fanout;    // Most children of an internal node
+    private Node<E> root;        // Root of tree
+    private String treeName;     // Name of tree
+    private int size;            // Number of keys
+    private int height = -1;     // Edges from the root down to the leaves, -1 when empty
+    private int modCount;        // Changed by every operation that changes the tree
+
+    /**
+     * Create an empty tree
+     * @param label  Name of tree
+     * @param fanout most children per node, at least 4; e.g. DEFAULT_FANOUT
+     */
+    public BTree(String label, int fanout) {
+        // Bulk loading packs fanout - 2 keys per leaf; below 4 that is one key, and spreading
+        // the leaves evenly could leave an internal node with a single child and no separator
+        if (fanout < 4) {
+            throw new IllegalArgumentException("fanout must be at least 4");
+        }
+        this.fanout = fanout;
+        treeName = label;
+    }
+
+    /**
+     * Create tree from list, bulk loaded: the list is sorted once and packed into nodes directly
+     * @param arr    List of elements
+     * @param label  Name of tree
+     * @param fanout most children per node, at least 4
+     */
+    public BTree(E[] arr, String label, int fanout) {
+        this(label, fanout);
+        E[] sorted = arr.clone();
+        Arrays.parallelSort(sorted);
+        load(sorted, sorted.length);
+    }
+
+    /**
+     * Change name of tree
+     * @param name new name of tree
+     */
+    public void changeName(String name) {
+        this.treeName = name;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Complexity is O(1), as every leaf is at the same depth
+     * @return number of edges from the root down to a leaf, -1 for an empty tree
+     */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Determines if x is in the tree
+     * Complexity is O(log n): one binary search over each node's keys on a single path down
+     * @param x the item to search for
+     * @return true if found
+     */
+    public boolean contains(E x) {
+        if (root == null) {
+            return false;
+        }
+        Node<E> t = root;
+        while (!t.isLeaf()) {
+            t = t.children[t.upperBound(x)];
+        }
+        int i = t.lowerBound(x);
+        return i < t.count && t.key(i).compareTo(x) == 0;
+    }
+
+    /**
+     * Insert into the tree; duplicates are allowed and go after equal keys
+     * Complexity is O(log n): a full node splits in two and passes its middle up to its parent
+     * @param x the item to insert.
+     */
+    @SuppressWarnings("unchecked")
+    public void bstInsert(E x) {
+        modCount++;
+        size++;
+        if (root == null) {
+            root = new Node<>(true, fanout);
+            root.keys[0] = x;
+            root.count = 1;
+            height = 0;
+            return;
+        }
+
+        // Nodes passed on the way down, and which child was taken at each
+        Node<E>[] path = (Node<E>[]) new Node<?>[height + 1];
+        int[] taken = new int[height + 1];
+        Node<E> t = root;
+        for (int depth = 0; !t.isLeaf(); depth++) {
+            path[depth] = t;
+            taken[depth] = t.upperBound(x);
+            t = t.children[taken[depth]];
+        }
+        t.insertKey(t.upperBound(x), x);
+
+        // Split full nodes on the way back up
+        for (int depth = height; t.count == fanout; depth--) {
+            // The middle key separates the halves: a leaf keeps it on the right, an internal node gives it up
+            E separator = t.key(t.count / 2);
+            Node<E> right = t.split();
+            if (depth == 0) {
+                Node<E> top = new Node<>(false, fanout);
+                top.keys[0] = separator;
+                top.children[0] = t;
+                top.children[1] = right;
+                top.count = 1;
+                root = top;
+                height++;
+                return;
+            }
+            Node<E> parent = path[depth - 1];
+            parent.insertKey(taken[depth - 1], separator);
+            parent.insertChild(taken[depth - 1] + 1, right);
+            t = parent;
+        }
+    }
+
+    /**
+     * Keep only nodes between a and b
+     * Complexity is O(log n + k) for k keys kept: they are read off the leaf chain into a buffer
+     * that grows with them, and packed into new nodes, so the tree stays full and balanced
+     * @param a lowest value
+     * @param b highest value
+     */
+    public void keepRange(E a, E b) {
+        modCount++;
+        Object[] kept = new Object[16];
+        int k = 0;
+        for (Iterator<E> it = new RangeIterator(a, b); it.hasNext(); ) {
+            if (k == kept.length) {
+                kept = Arrays.copyOf(kept, 2 * k);
+            }
+            kept[k++] = it.next();
+        }
+        load(kept, k);
+    }
+
+    /**
+     * In order iterator over the elements between a and b, without changing the tree
+     * Complexity is O(log n) to find the first element, then O(1) per element along the leaves
+     * @param a lowest value
+     * @param b highest value
+     * @return iterator over the elements in range, in order
+     */
+    public Iterator<E> rangeIterator(E a, E b) {
+        return new RangeIterator(a, b);
+    }
+
+    /**
+     * Read-only view of the elements between a and b; each iteration is a fresh range scan
+     * @param a lowest value
+     * @param b highest value
+     * @return the elements in range, in order
+     */
+    public Iterable<E> subTree(E a, E b) {
+        return () -> rangeIterator(a, b);
+    }
+
+    /**
+     * @return string displaying the tree contents as a single line
+     */
+    public String toString2() {
+        if (root == null) {
+            return treeName + " Empty tree";
+        }
+        StringBuilder sb = new StringBuilder(treeName).append(' ');
+        for (Node<E> leaf = leftmostLeaf(); leaf != null; leaf = leaf.next) {
+            for (int i = 0; i < leaf.count; i++) {
+                sb.append(leaf.keys[i]).append(' ');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return a string displaying the tree with one node per line, as [key key ...],
+     * each node above its children and indented by its depth
+     */
+    @SuppressWarnings("unchecked")
+    public String toString() {
+        StringBuilder sb = new StringBuilder(treeName);
+        if (root == null) {
+            return sb.append(" Empty tree\n").toString();
+        }
+        sb.append('\n');
+        String indent = " ".repeat(2 * height);
+        // Explicit stack of nodes with their depth; children are pushed last to first,
+        // so the first child comes out first
+        Node<E>[] nodes = (Node<E>[]) new Node<?>[16];
+        int[] depths = new int[16];
+        int top = 0;
+        nodes[top] = root;
+        depths[top++] = 0;
+        while (top > 0) {
+            Node<E> t = nodes[--top];
+            int depth = depths[top];
+            sb.append(indent, 0, 2 * depth).append('[');
+            for (int i = 0; i < t.count; i++) {
+                if (i > 0) sb.append(' ');
+                sb.append(t.keys[i]);
+            }
+            sb.append("]\n");
+            if (!t.isLeaf()) {
+                if (top + t.count + 1 > nodes.length) {
+                    nodes = Arrays.copyOf(nodes, 2 * (top + t.count + 1));
+                    depths = Arrays.copyOf(depths, nodes.length);
+                }
+                for (int i = t.count; i >= 0; i--) {
+                    nodes[top] = t.children[i];
+                    depths[top++] = depth + 1;
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    // @return the first leaf in order
+    private Node<E> leftmostLeaf() {
+        Node<E> t = root;
+        while (!t.isLeaf()) {
+            t = t.children[0];
+        }
+        return t;
+    }
+
+    /**
+     * Replace the tree with one packed from sorted keys: leaves first, then each level of
+     * internal nodes over the one below, with the keys spread evenly so no node is nearly empty
+     * Nodes are filled to fanout - 2 keys, leaving one free slot so the next insert does not split
+     * @param sorted the keys, in order
+     * @param n      number of keys to use from the front of sorted
+     */
+    @SuppressWarnings("unchecked")
+    private void load(Object[] sorted, int n) {
+        size = n;
+        if (n == 0) {
+            root = null;
+            height = -1;
+            return;
+        }
+        int per = fanout - 2;
+        int count = (n + per - 1) / per;
+        Node<E>[] level = (Node<E>[]) new Node<?>[count];
+        Object[] smallest = new Object[count];    // smallest key under each node of the level
+        for (int i = 0, from = 0; i < count; i++) {
+            int to = (int) ((long) n * (i + 1) / count);
+            Node<E> leaf = new Node<>(true, fanout);
+            System.arraycopy(sorted, from, leaf.keys, 0, to - from);
+            leaf.count = to - from;
+            if (i > 0) level[i - 1].next = leaf;
+            level[i] = leaf;
+            smallest[i] = sorted[from];
+            from = to;
+        }
+        height = 0;
+        while (count > 1) {
+            int parents = (count + per) / (per + 1);    // each takes up to per + 1 children
+            Node<E>[] above = (Node<E>[]) new Node<?>[parents];
+            Object[] aboveSmallest = new Object[parents];
+            for (int i = 0, from = 0; i < parents; i++) {
+                int to = (int) ((long) count * (i + 1) / parents);
+                Node<E> t = new Node<>(false, fanout);
+                for (int c = from; c < to; c++) {
+                    t.children[c - from] = level[c];
+                    if (c > from) t.keys[c - from - 1] = smallest[c];
+                }
+                t.count = to - from - 1;
+                above[i] = t;
+                aboveSmallest[i] = smallest[from];
+                from = to;
+            }
+            level = above;
+            smallest = aboveSmallest;
+            count = parents;
+            height++;
+        }
+        root = level[0];
+    }
+
+    // Walks the leaf chain from the first key at or above low until a key passes high
+    private class RangeIterator implements Iterator<E> {
+        private final E high;
+        private final int expectedModCount = modCount;
+        private Node<E> leaf;
+        private int index;
+
+        RangeIterator(E low, E high) {
+            this.high = high;
+            if (root == null) {
+                return;
+            }
+            // Keys equal to low may sit just left of an equal separator, so take the leftmost child that could hold one
+            Node<E> t = root;
+            while (!t.isLeaf()) {
+                t = t.children[t.lowerBound(low)];
+            }
+            leaf = t;
+            index = t.lowerBound(low);
+            skipEmpty();
+        }
+
+        public boolean hasNext() {
+            return leaf != null && leaf.key(index).compareTo(high) <= 0;
+        }
+
+        public E next() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (!hasNext())
+                throw new NoSuchElementException();
+            E x = leaf.key(index++);
+            skipEmpty();
+            return x;
+        }
+
+        // Move to the next leaf once this one is used up
+        private void skipEmpty() {
+            while (leaf != null && index == leaf.count) {
+                leaf = leaf.next;
+                index = 0;
+            }
+        }
+    }
+
+    // Wide node: keys in order, and for an internal node count + 1 children
+    // Arrays have one spare slot so a node can take a key before it splits
+    private static class Node<E extends Comparable<? super E>> {
+        final Object[] keys;
+        final Node<E>[] children; // null for a leaf
+        int count;                // Number of keys
+        Node<E> next;             // Next leaf in order, for leaves
+
+        @SuppressWarnings("unchecked")
+        Node(boolean leaf, int fanout) {
+            keys = new Object[fanout];
+            children = leaf ? null : (Node<E>[]) new Node<?>[fanout + 1];
+        }
+
+        boolean isLeaf() {
+            return children == null;
+        }
+
+        @SuppressWarnings("unchecked")
+        E key(int i) {
+            return (E) keys[i];
+        }
+
+        // @return number of keys less than x
+        int lowerBound(E x) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (key(mid).compareTo(x) < 0) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+
+        // @return number of keys less than or equal to x
+        int upperBound(E x) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (key(mid).compareTo(x) <= 0) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+
+        void insertKey(int i, E x) {
+            System.arraycopy(keys, i, keys, i + 1, count - i);
+            keys[i] = x;
+            count++;
+        }
+
+        // Put child at position i; called after the separator to its left has been inserted
+        void insertChild(int i, Node<E> child) {
+            System.arraycopy(children, i, children, i + 1, count - i);
+            children[i] = child;
+        }
+
+        /**
+         * Move the upper half of this full node into a new node
+         * A leaf keeps its middle key on the right, where the parent's separator copies it from;
+         * an internal node gives its middle key up to the parent
+         * @return the new right sibling
+         */
+        Node<E> split() {
+            Node<E> right = new Node<>(isLeaf(), keys.length);
+            int mid = count / 2;
+            if (isLeaf()) {
+                right.count = count - mid;
+                System.arraycopy(keys, mid, right.keys, 0, right.count);
+                right.next = next;
+                next = right;
+            } else {
+                right.count = count - mid - 1;
+                System.arraycopy(keys, mid + 1, right.keys, 0, right.count);
+                System.arraycopy(children, mid + 1, right.children, 0, right.count + 1);
+                Arrays.fill(children, mid + 1, count + 1, null);
+            }
+            Arrays.fill(keys, mid, count, null);
+            count = mid;
+            return right;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only copy of an ordered tree made by Tree.freeze, with no nodes or links
+ * The keys sit in one array in Eytzinger order: the root at index 1 and the children of index k
+ * at 2k and 2k + 1, so a search reads the top levels from a few shared cache lines and
+ * every next index is computed rather than loaded
+ * Integer trees keep their keys in a primitive int array, so searches never unbox
+ * Searches do not branch on the comparison: each step adds its result to the index, and the
+ * answer is recovered from the final index afterwards
+ */
+public class FrozenTree<E extends Comparable<? super E>> implements Iterable<E> {
+    private final int[] ints;       // Keys when every key is an Integer, otherwise null; index 0 unused
+    private final Object[] keys;    // Keys otherwise; index 0 unused
+    private final int size;
+
+    /**
+     * Lay out sorted keys in Eytzinger order
+     * Complexity is O(n): each key is placed at the in order successor of the previous one
+     * @param sorted the keys, in order
+     */
+    FrozenTree(E[] sorted) {
+        size = sorted.length;
+        boolean allInts = size > 0;
+        for (E x : sorted) {
+            if (!(x instanceof Integer)) {
+                allInts = false;
+                break;
+            }
+        }
+        ints = allInts ? new int[size + 1] : null;
+        keys = allInts ? null : new Object[size + 1];
+        int k = first();
+        for (E x : sorted) {
+            if (allInts) {
+                ints[k] = (Integer) x;
+            } else {
+                keys[k] = x;
+            }
+            k = successor(k);
+        }
+    }
+
+    // @return number of keys
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Determines if x is in the tree
+     * Complexity is O(log n)
+     * @param x the item to search for
+     * @return true if found
+     */
+    public boolean contains(E x) {
+        int k = lowerBound(x);
+        return k != 0 && compareAt(k, x) == 0;
+    }
+
+    /**
+     * @param x the item to search for
+     * @return the smallest key at least x, or null if there is none
+     */
+    public E ceiling(E x) {
+        return keyAt(lowerBound(x));
+    }
+
+    /**
+     * @param x the item to search for
+     * @return the largest key at most x, or null if there is none
+     */
+    public E floor(E x) {
+        int k = 1;
+        if (ints != null) {
+            int key = (Integer) x;
+            while (k <= size) {
+                k = (k << 1) + (ints[k] <= key ? 1 : 0);
+            }
+        } else {
+            while (k <= size) {
+                k = (k << 1) + (compareAt(k, x) <= 0 ? 1 : 0);
+            }
+        }
+        // Undo the moves after the last step right; that step was taken at the answer
+        return keyAt(k >>> (Integer.numberOfTrailingZeros(k) + 1));
+    }
+
+    /**
+     * Keys between a and b, in order
+     * Complexity is O(log n) to find the first key, then O(1) amortized per key
+     * @param a lowest value
+     * @param b highest value
+     * @return iterator over the keys in range
+     */
+    public Iterator<E> range(E a, E b) {
+        int start = lowerBound(a);
+        return new Iterator<E>() {
+            private int k = start;
+
+            public boolean hasNext() {
+                return k != 0 && compareAt(k, b) <= 0;
+            }
+
+            public E next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                E x = keyAt(k);
+                k = successor(k);
+                return x;
+            }
+        };
+    }
+
+    /**
+     * @return iterator over every key, in order
+     */
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private int k = size == 0 ? 0 : first();
+
+            public boolean hasNext() {
+                return k != 0;
+            }
+
+            public E next() {
+                if (k == 0)
+                    throw new NoSuchElementException();
+                E x = keyAt(k);
+                k = successor(k);
+                return x;
+            }
+        };
+    }
+
+    /**
+     * Find the first key not less than x
+     * Each step goes right when the key is less than x, by adding the comparison to the index;
+     * at the end, the moves after the last step left are undone, and that step was taken at the answer
+     * @param x the item to search for
+     * @return index of the key, or 0 if every key is less than x
+     */
+    private int lowerBound(E x) {
+        int k = 1;
+        if (ints != null) {
+            int key = (Integer) x;
+            while (k <= size) {
+                k = (k << 1) + (ints[k] < key ? 1 : 0);
+            }
+        } else {
+            while (k <= size) {
+                k = (k << 1) + (compareAt(k, x) < 0 ? 1 : 0);
+            }
+        }
+        return k >>> (Integer.numberOfTrailingZeros(~k) + 1);
+    }
+
+    // @return the key at index k compared with x, as compareTo would
+    @SuppressWarnings("unchecked")
+    private int compareAt(int k, E x) {
+        if (ints != null) {
+            return Integer.compare(ints[k], (Integer) x);
+        }
+        return ((E) keys[k]).compareTo(x);
+    }
+
+    // @return the key at index k, or null for index 0
+    @SuppressWarnings("unchecked")
+    private E keyAt(int k) {
+        if (k == 0) {
+            return null;
+        }
+        return ints != null ? (E) Integer.valueOf(ints[k]) : (E) keys[k];
+    }
+
+    // @return index of the smallest key: the end of the leftmost path
+    private int first() {
+        int k = 1;
+        while (2 * k <= size) {
+            k *= 2;
+        }
+        return k;
+    }
+
+    /**
+     * The next index in order: the leftmost of the right subtree if there is one,
+     * otherwise the nearest ancestor reached from its left side
+     * @param k an index
+     * @return the next index, or 0 after the largest key
+     */
+    private int successor(int k) {
+        if (2 * k + 1 <= size) {
+            k = 2 * k + 1;
+            while (2 * k <= size) {
+                k *= 2;
+            }
+            return k;
+        }
+        return k >>> (Integer.numberOfTrailingZeros(~k) + 1);
+    }
+}
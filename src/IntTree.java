@@ -0,0 +1,737 @@
+import java.util.Arrays;
+
+/**
+ * Tree of primitive int keys with the same operations as Tree<Integer>
+ * Keys are stored unboxed and path sums use long arithmetic, so the traversals
+ * do not allocate anything per node visited
+ * Like Tree, every node caches the height and size of its subtree, and a tree built only
+ * through bstInsert or sorting is searched by descending rather than by scanning
+ * Where Tree returns null for a missing element, an int cannot be null, so deepestNode
+ * throws UnderflowException on an empty tree instead
+ */
+public class IntTree {
+    private static final int ALLOWED_IMBALANCE = 1;
+
+    public IntNode root;         // Root of tree
+    private String treeName;     // Name of tree
+    private boolean balanced;    // Rebalance (AVL) on every bstInsert
+    private boolean ordered = true;  // Built only through bstInsert or sorting, so searches can descend
+
+    /**
+     * Create an empty tree
+     * @param label Name of tree
+     */
+    public IntTree(String label) {
+        treeName = label;
+        root = null;
+    }
+
+    /**
+     * Create an empty tree, optionally kept height balanced
+     * @param label    Name of tree
+     * @param balanced true to rebalance (AVL) on every bstInsert
+     */
+    public IntTree(String label, boolean balanced) {
+        this(label);
+        this.balanced = balanced;
+    }
+
+    /**
+     * Create non ordered tree from list in preorder
+     * @param arr   List of elements
+     * @param label Name of tree
+     */
+    public IntTree(int[] arr, String label, boolean ordered) {
+        this(arr, label, ordered, false);
+    }
+
+    /**
+     * Create tree from list, optionally kept height balanced
+     * A balanced tree is bulk loaded: the list is sorted once and built directly
+     * @param arr      List of elements
+     * @param label    Name of tree
+     * @param ordered  true to build a BST, false to build by preorder
+     * @param balanced true to rebalance (AVL) on every bstInsert
+     */
+    public IntTree(int[] arr, String label, boolean ordered, boolean balanced) {
+        treeName = label;
+        this.balanced = balanced && ordered;
+        this.ordered = ordered;
+        if (this.balanced) {
+            int[] sorted = arr.clone();
+            Arrays.parallelSort(sorted);
+            root = buildBalanced(sorted, 0, sorted.length - 1);
+        } else if (ordered) {
+            root = null;
+            for (int i = 0; i < arr.length; i++) {
+                bstInsert(arr[i]);
+            }
+        } else root = buildUnordered(arr, 0, arr.length - 1);
+    }
+
+    /**
+     * Create BST from Array
+     * @param arr   List of elements to be added
+     * @param label Name of  tree
+     */
+    public IntTree(int[] arr, String label) {
+        this(arr, label, true);
+    }
+
+    /**
+     * Build a NON BST tree by preorder
+     * @param arr nodes to be added
+     * @return new tree
+     */
+    private IntNode buildUnordered(int[] arr, int low, int high) {
+        if (low > high) return null;
+        int mid = (low + high) / 2;
+        IntNode curr = new IntNode(arr[mid], null, null);
+        curr.left = buildUnordered(arr, low, mid - 1);
+        curr.right = buildUnordered(arr, mid + 1, high);
+        update(curr);
+        return curr;
+    }
+
+    /**
+     * Build a balanced BST from a sorted list, filling in stored heights and sizes
+     * @param sorted nodes to be added, in order
+     * @param low    first index to use
+     * @param high   last index to use
+     * @return root of new subtree
+     */
+    private IntNode buildBalanced(int[] sorted, int low, int high) {
+        if (low > high) return null;
+        int mid = (low + high) / 2;
+        IntNode curr = new IntNode(sorted[mid], null, null);
+        curr.left = buildBalanced(sorted, low, mid - 1);
+        curr.right = buildBalanced(sorted, mid + 1, high);
+        update(curr);
+        return curr;
+    }
+
+    /**
+     * Change name of tree
+     * @param name new name of tree
+     */
+    public void changeName(String name) {
+        this.treeName = name;
+    }
+
+    /**
+     * @return a string displaying the tree contents as a tree with one node per line
+     */
+    public String toString() {
+        if (root == null)
+            return (treeName + " Empty tree\n");
+        StringBuilder sb = new StringBuilder(treeName).append('\n');
+        walk(root, true, new Walker() {
+            void between(IntNode node, int depth) {
+                for (int i = 0; i < depth; i++) {
+                    sb.append("  ");
+                }
+                sb.append(node.key).append('\n');
+            }
+        });
+        return sb.toString();
+    }
+
+    /**
+     * @return string displaying the tree contents as a single line
+     */
+    public String toString2() {
+        if (root == null)
+            return treeName + " Empty tree";
+        StringBuilder sb = new StringBuilder(treeName).append(' ');
+        walk(root, false, new Walker() {
+            void between(IntNode node, int depth) {
+                sb.append(node.key).append(' ');
+            }
+        });
+        return sb.toString();
+    }
+
+    /**
+     * Reverse left and right children of every node
+     */
+    public void flip() {
+        walk(root, false, new Walker() {
+            boolean enter(IntNode node, int depth) {
+                IntNode hold = node.right;
+                node.right = node.left;
+                node.left = hold;
+                return true;
+            }
+        });
+        if (root != null) ordered = false;
+    }
+
+    /**
+     * Find the leftmost node that is height() moves away from the root
+     * Complexity is O(h): the stored heights say which child leads to it
+     * @return the key of the deepest node
+     * @throws UnderflowException if the tree is empty, where Tree returns null
+     */
+    public int deepestNode() {
+        if (root == null)
+            throw new UnderflowException(treeName + " is empty");
+        IntNode t = root;
+        while (t.left != null || t.right != null) {
+            t = nodeHeight(t.left) >= nodeHeight(t.right) ? t.left : t.right;
+        }
+        return t.key;
+    }
+
+    /**
+     * Complexity is O(1), from the height stored in the root
+     * @return the height of the tree, -1 if empty
+     */
+    public int height() {
+        return nodeHeight(root);
+    }
+
+    /**
+     * Return the height of the tallest branch of the node
+     * @param node current working node
+     * @return the height of the tallest branch
+     */
+    public int height(IntNode node) {
+        return nodeHeight(node);
+    }
+
+    /**
+     * Complexity is O(1), from the size stored in the root
+     * @return number of nodes in the tree
+     */
+    public int size() {
+        return nodeSize(root);
+    }
+
+    /**
+     * Counts number of nodes in specified level
+     * @param level Level in tree, root is zero
+     * @return count of number of nodes at specified level
+     */
+    public int nodesInLevel(int level) {
+        int[] count = {0};
+        walk(root, false, new Walker() {
+            boolean enter(IntNode node, int depth) {
+                if (depth == level) {
+                    count[0]++;
+                }
+                return depth < level;
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Print all paths from root to leaves, moving left to right
+     */
+    public void printAllPaths() {
+        int[][] chain = {new int[16]};
+        walk(root, false, new Walker() {
+            boolean enter(IntNode node, int depth) {
+                if (depth == chain[0].length) {
+                    chain[0] = Arrays.copyOf(chain[0], depth * 2);
+                }
+                chain[0][depth] = node.key;
+                if ((node.left == null) && (node.right == null)) {
+                    StringBuilder sb = new StringBuilder();
+                    for (int i = 0; i <= depth; i++) {
+                        if (i > 0) sb.append(' ');
+                        sb.append(chain[0][i]);
+                    }
+                    System.out.println(sb);
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Remove all paths from tree that sum to less than given value
+     * A node is kept once the path down to it reaches the sum, or if any node below it is kept
+     * Complexity is O(n); sums are kept in a long array indexed by depth
+     * @param sum minimum path sum allowed in final tree
+     */
+    public void pruneK(int sum) {
+        IntNode[][] path = {new IntNode[16]};
+        long[][] prefix = {new long[16]};
+        walk(root, false, new Walker() {
+            boolean enter(IntNode node, int depth) {
+                if (depth == path[0].length) {
+                    path[0] = Arrays.copyOf(path[0], depth * 2);
+                    prefix[0] = Arrays.copyOf(prefix[0], depth * 2);
+                }
+                path[0][depth] = node;
+                long currentSum = (depth == 0 ? 0 : prefix[0][depth - 1]) + node.key;
+                prefix[0][depth] = currentSum;
+                return currentSum < sum;
+            }
+
+            void exit(IntNode node, int depth) {
+                if ((node.left != null) || (node.right != null)) {
+                    return;
+                }
+                if (depth == 0) {
+                    root = null;
+                    return;
+                }
+                IntNode parent = path[0][depth - 1];
+                if (parent.left == node) {
+                    parent.left = null;
+                } else {
+                    parent.right = null;
+                }
+            }
+        });
+        refresh(root);
+    }
+
+    /**
+     * Unlink every node below the given node, children first
+     * @param node the node whose descendants are removed
+     */
+    public void postOrderDeletion(IntNode node) {
+        walk(node, false, new Walker() {
+            void exit(IntNode n, int depth) {
+                n.left = null;
+                n.right = null;
+            }
+        });
+        refresh(root);
+    }
+
+    /**
+     * Find the least common ancestor of two keys
+     * Complexity is O(h) in an ordered tree, where both keys are looked up and the ancestor is
+     * the first node the keys are not both on one side of; O(n) otherwise, as we find the path
+     * to each key once
+     * @param a first key
+     * @param b second key
+     * @return String representation of ancestor, or "none" if either key is missing
+     */
+    public String lca(int a, int b) {
+        if (a == b) {
+            return Integer.toString(a);
+        }
+        if (ordered) {
+            if (!contains(a) || !contains(b)) {
+                return "none";
+            }
+            IntNode t = root;
+            while (true) {
+                if (a < t.key && b < t.key) {
+                    t = t.left;
+                } else if (a > t.key && b > t.key) {
+                    t = t.right;
+                } else {
+                    return Integer.toString(t.key);
+                }
+            }
+        }
+        IntNode[] pathA = pathTo(a);
+        IntNode[] pathB = pathTo(b);
+        if (pathA == null || pathB == null) {
+            return "none";
+        }
+        int i = 0;
+        while (i + 1 < pathA.length && i + 1 < pathB.length && pathA[i + 1] == pathB[i + 1]) {
+            i++;
+        }
+        return Integer.toString(pathA[i].key);
+    }
+
+    /**
+     * Find the nodes from the root down to the first node (preorder) holding x
+     * @param x is item to search for
+     * @return the nodes on the path, starting with the root, or null if x is not found
+     */
+    private IntNode[] pathTo(int x) {
+        IntNode[][] path = {new IntNode[16]};
+        int[] length = {0};
+        walk(root, false, new Walker() {
+            boolean enter(IntNode node, int depth) {
+                if (depth == path[0].length) {
+                    path[0] = Arrays.copyOf(path[0], depth * 2);
+                }
+                path[0][depth] = node;
+                if (node.key == x) {
+                    length[0] = depth + 1;
+                    stop();
+                }
+                return true;
+            }
+        });
+        return length[0] == 0 ? null : Arrays.copyOf(path[0], length[0]);
+    }
+
+    /**
+     * Determines if item is in tree
+     * Complexity is O(h) in an ordered tree, by descending; otherwise this scans in O(n)
+     * and stops at the first match
+     * @param x the item to search for.
+     * @return true if found.
+     */
+    public boolean contains(int x) {
+        if (ordered) {
+            IntNode t = root;
+            while (t != null) {
+                if (x == t.key)
+                    return true;
+                t = x < t.key ? t.left : t.right;
+            }
+            return false;
+        }
+        boolean[] found = {false};
+        walk(root, false, new Walker() {
+            boolean enter(IntNode node, int depth) {
+                if (node.key == x) {
+                    found[0] = true;
+                    stop();
+                }
+                return true;
+            }
+        });
+        return found[0];
+    }
+
+    /**
+     * Balance the tree
+     * Collects the keys into an int array, sorts them and rebuilds by taking middle elements
+     */
+    public void balanceTree() {
+        int[] count = {0};
+        walk(root, false, new Walker() {
+            boolean enter(IntNode node, int depth) {
+                count[0]++;
+                return true;
+            }
+        });
+        int[] keys = new int[count[0]];
+        int[] next = {0};
+        walk(root, false, new Walker() {
+            boolean enter(IntNode node, int depth) {
+                keys[next[0]++] = node.key;
+                return true;
+            }
+        });
+        Arrays.sort(keys);
+        root = buildBalanced(keys, 0, keys.length - 1);
+        ordered = true;
+    }
+
+    /**
+     * In a BST, keep only nodes between range a and b
+     * Complexity is O(h): we go down to the first node in range, then down its left and
+     * right edges, cutting off whole out of range subtrees without visiting them
+     * @param a lowest value
+     * @param b highest value
+     */
+    public void keepRange(int a, int b) {
+        while (root != null && (root.key < a || root.key > b)) {
+            root = root.key < a ? root.right : root.left;
+        }
+        if (root == null)
+            return;
+
+        // Only nodes on the two edges lose anything below them, so they are kept
+        // to have their heights and sizes recomputed afterwards
+        IntNode[] leftEdge = new IntNode[root.height + 1];
+        int leftLength = 0;
+        IntNode node = root;
+        while (node.left != null) {
+            // A left child below a, and its left subtree, are all out of range,
+            // but its right subtree may not be, so it takes the child's place
+            if (node.left.key < a) {
+                node.left = node.left.right;
+            } else {
+                node = node.left;
+                leftEdge[leftLength++] = node;
+            }
+        }
+
+        // Right edge, the same way against b
+        IntNode[] rightEdge = new IntNode[root.height + 1];
+        int rightLength = 0;
+        node = root;
+        while (node.right != null) {
+            if (node.right.key > b) {
+                node.right = node.right.left;
+            } else {
+                node = node.right;
+                rightEdge[rightLength++] = node;
+            }
+        }
+
+        for (int i = leftLength - 1; i >= 0; i--) {
+            update(leftEdge[i]);
+        }
+        for (int i = rightLength - 1; i >= 0; i--) {
+            update(rightEdge[i]);
+        }
+        update(root);
+    }
+
+    /**
+     * Counts all non-null binary search trees embedded in tree, i.e. the nodes whose subtree is a BST
+     * Complexity is O(n): one post-order pass works out, for every subtree, whether it is a BST and
+     * its smallest and largest keys, from its children's answers
+     * A subtree is a BST if both child subtrees are, and the left max <= the node <= the right min
+     * @return Count of embedded binary search trees
+     */
+    public int countBST() {
+        BstCounter counter = new BstCounter();
+        walk(root, false, counter);
+        return counter.count;
+    }
+
+    /**
+     * Post-order pass for countBST()
+     * Each node's answer is written into a slot for its parent, indexed by the parent's depth
+     * and side, and read when the parent exits; slots are cleared as each parent is entered
+     */
+    private static class BstCounter extends Walker {
+        int count;
+        private IntNode[] path = new IntNode[32];
+        private boolean[] present = new boolean[64];
+        private boolean[] isBST = new boolean[64];
+        private int[] min = new int[64];
+        private int[] max = new int[64];
+
+        boolean enter(IntNode node, int depth) {
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, 2 * depth);
+                present = Arrays.copyOf(present, 4 * depth);
+                isBST = Arrays.copyOf(isBST, 4 * depth);
+                min = Arrays.copyOf(min, 4 * depth);
+                max = Arrays.copyOf(max, 4 * depth);
+            }
+            path[depth] = node;
+            present[2 * depth] = false;
+            present[2 * depth + 1] = false;
+            return true;
+        }
+
+        void exit(IntNode node, int depth) {
+            int left = 2 * depth;
+            int right = left + 1;
+            boolean bst = (!present[left] || (isBST[left] && max[left] <= node.key))
+                    && (!present[right] || (isBST[right] && min[right] >= node.key));
+            if (bst) count++;
+            if (depth == 0)
+                return;
+            int slot = 2 * (depth - 1) + (path[depth - 1].left == node ? 0 : 1);
+            present[slot] = true;
+            isBST[slot] = bst;
+            min[slot] = present[left] ? min[left] : node.key;
+            max[slot] = present[right] ? max[right] : node.key;
+        }
+    }
+
+    /**
+     * Insert into a bst tree; duplicates are allowed
+     * Descends without recursion; the nodes passed are kept so their heights and sizes can be
+     * updated on the way back up, and in balanced mode so they can be rebalanced
+     * @param x the item to insert.
+     */
+    public void bstInsert(int x) {
+        IntNode node = new IntNode(x, null, null);
+        if (root == null) {
+            root = node;
+            return;
+        }
+
+        IntNode[] path = new IntNode[root.height + 1];
+        int length = 0;
+        IntNode parent = root;
+        while (true) {
+            path[length++] = parent;
+            if (x < parent.key) {
+                if (parent.left == null) {
+                    parent.left = node;
+                    break;
+                }
+                parent = parent.left;
+            } else {
+                if (parent.right == null) {
+                    parent.right = node;
+                    break;
+                }
+                parent = parent.right;
+            }
+        }
+        if (!balanced) {
+            for (int i = length - 1; i >= 0; i--) {
+                update(path[i]);
+            }
+            return;
+        }
+
+        for (int i = length - 1; i >= 0; i--) {
+            IntNode old = path[i];
+            IntNode subtree = balance(old);
+            if (i == 0) {
+                root = subtree;
+            } else if (path[i - 1].left == old) {
+                path[i - 1].left = subtree;
+            } else {
+                path[i - 1].right = subtree;
+            }
+        }
+    }
+
+    private int nodeHeight(IntNode t) {
+        return t == null ? -1 : t.height;
+    }
+
+    private int nodeSize(IntNode t) {
+        return t == null ? 0 : t.size;
+    }
+
+    // Recompute t's stored height and size from its children's
+    private void update(IntNode t) {
+        t.height = Math.max(nodeHeight(t.left), nodeHeight(t.right)) + 1;
+        t.size = nodeSize(t.left) + nodeSize(t.right) + 1;
+    }
+
+    /**
+     * Restores the AVL property at t with a single or double rotation
+     * @param t the node that roots the subtree
+     * @return the new root of the subtree
+     */
+    private IntNode balance(IntNode t) {
+        if (nodeHeight(t.left) - nodeHeight(t.right) > ALLOWED_IMBALANCE) {
+            if (nodeHeight(t.left.left) < nodeHeight(t.left.right))
+                t.left = rotateWithRightChild(t.left);
+            t = rotateWithLeftChild(t);
+        } else if (nodeHeight(t.right) - nodeHeight(t.left) > ALLOWED_IMBALANCE) {
+            if (nodeHeight(t.right.right) < nodeHeight(t.right.left))
+                t.right = rotateWithLeftChild(t.right);
+            t = rotateWithRightChild(t);
+        }
+        update(t);
+        return t;
+    }
+
+    private IntNode rotateWithLeftChild(IntNode k2) {
+        IntNode k1 = k2.left;
+        k2.left = k1.right;
+        k1.right = k2;
+        update(k2);
+        update(k1);
+        return k1;
+    }
+
+    private IntNode rotateWithRightChild(IntNode k1) {
+        IntNode k2 = k1.right;
+        k1.right = k2.left;
+        k2.left = k1;
+        update(k1);
+        update(k2);
+        return k2;
+    }
+
+    /**
+     * Recompute stored heights and sizes after an operation that restructured the tree
+     * Complexity is O(n) for the subtree
+     * @param t the node that roots the subtree
+     */
+    private void refresh(IntNode t) {
+        walk(t, false, new Walker() {
+            void exit(IntNode node, int depth) {
+                update(node);
+            }
+        });
+    }
+
+    // ******************TRAVERSAL********************************
+    // Same explicit-stack walk as Tree, specialized to IntNode
+
+    private abstract static class Walker {
+        private boolean stopped;
+
+        // Called before either subtree; return false to skip them
+        boolean enter(IntNode node, int depth) {
+            return true;
+        }
+
+        // Called after the first subtree and before the second
+        void between(IntNode node, int depth) {
+        }
+
+        // Called after both subtrees
+        void exit(IntNode node, int depth) {
+        }
+
+        void stop() {
+            stopped = true;
+        }
+    }
+
+    /**
+     * Depth first traversal using an explicit stack
+     * @param start   the node that roots the subtree to walk
+     * @param reverse false to go left then right, true to go right then left
+     * @param walker  the callbacks to make
+     */
+    private void walk(IntNode start, boolean reverse, Walker walker) {
+        if (start == null)
+            return;
+        IntNode[] nodes = new IntNode[32];
+        byte[] stages = new byte[32];
+        int size = 0;
+        nodes[size++] = start;
+        while (size > 0 && !walker.stopped) {
+            IntNode node = nodes[size - 1];
+            int depth = size - 1;    // each entry sits directly above its parent
+            IntNode child = null;
+            switch (stages[size - 1]++) {
+                case 0:
+                    if (!walker.enter(node, depth)) {
+                        nodes[--size] = null;
+                    } else {
+                        child = reverse ? node.right : node.left;
+                    }
+                    break;
+                case 1:
+                    walker.between(node, depth);
+                    child = reverse ? node.left : node.right;
+                    break;
+                default:
+                    nodes[--size] = null;
+                    walker.exit(node, depth);
+            }
+            if (child != null) {
+                if (size == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, size * 2);
+                    stages = Arrays.copyOf(stages, size * 2);
+                }
+                nodes[size] = child;
+                stages[size] = 0;
+                size++;
+            }
+        }
+    }
+
+    // Basic node stored in IntTree
+    private static class IntNode {
+        int key;              // The data in the node
+        IntNode left;         // Left child
+        IntNode right;        // Right child
+        int height;           // Height of subtree rooted here
+        int size = 1;         // Number of nodes in subtree rooted here
+
+        IntNode(int theKey, IntNode lt, IntNode rt) {
+            key = theKey;
+            left = lt;
+            right = rt;
+        }
+
+        // toString for IntNode
+        public String toString() {
+            return Integer.toString(key);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed width binary form of tree keys, as stored by Tree.writeTo and read back by TreeFile
+ * Every key takes width() bytes, so a key can be found from its position alone
+ */
+public interface KeyCodec<E extends Comparable<? super E>> {
+    // @return bytes taken by each key
+    int width();
+
+    // Store key at the given byte offset
+    void write(ByteBuffer buffer, int offset, E key);
+
+    // @return the key stored at the given byte offset
+    E read(ByteBuffer buffer, int offset);
+
+    /**
+     * Compare the key stored at offset with key, as compareTo would
+     * Override to compare without building the stored key
+     */
+    default int compare(ByteBuffer buffer, int offset, E key) {
+        return read(buffer, offset).compareTo(key);
+    }
+
+    KeyCodec<Integer> INTEGER = new KeyCodec<Integer>() {
+        public int width() {
+            return Integer.BYTES;
+        }
+
+        public void write(ByteBuffer buffer, int offset, Integer key) {
+            buffer.putInt(offset, key);
+        }
+
+        public Integer read(ByteBuffer buffer, int offset) {
+            return buffer.getInt(offset);
+        }
+
+        public int compare(ByteBuffer buffer, int offset, Integer key) {
+            return Integer.compare(buffer.getInt(offset), key);
+        }
+    };
+
+    KeyCodec<Long> LONG = new KeyCodec<Long>() {
+        public int width() {
+            return Long.BYTES;
+        }
+
+        public void write(ByteBuffer buffer, int offset, Long key) {
+            buffer.putLong(offset, key);
+        }
+
+        public Long read(ByteBuffer buffer, int offset) {
+            return buffer.getLong(offset);
+        }
+
+        public int compare(ByteBuffer buffer, int offset, Long key) {
+            return Long.compare(buffer.getLong(offset), key);
+        }
+    };
+}
@@ -0,0 +1,31 @@
+import java.util.Iterator;
+
+/**
+ * The ordered tree operations that Tree and BTree share, so callers can switch between
+ * binary nodes and wide nodes without changing any code but the constructor call
+ */
+public interface OrderedTree<E extends Comparable<? super E>> {
+    // Insert x; duplicates are allowed
+    void bstInsert(E x);
+
+    // @return true if x is in the tree
+    boolean contains(E x);
+
+    // Keep only the elements between a and b
+    void keepRange(E a, E b);
+
+    // @return in order iterator over the elements between a and b
+    Iterator<E> rangeIterator(E a, E b);
+
+    // @return view of the elements between a and b; each iteration is a fresh range scan
+    Iterable<E> subTree(E a, E b);
+
+    // @return edges on the longest path from the root down, -1 for an empty tree
+    int height();
+
+    // @return number of elements
+    int size();
+
+    // @return the name of the tree and its elements in order, on one line
+    String toString2();
+}
@@ -0,0 +1,466 @@
+import java.lang.reflect.Array;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToLongFunction;
+
+/**
+ * Ordered tree whose nodes are never changed once built
+ * Every change makes a new version that copies only the nodes on the paths it touches and
+ * shares the rest with the version before it, then publishes the new root in one atomic step
+ * Readers work from a Snapshot, which is a single read of the root and never sees a change
+ * that happens after it was taken; nothing a reader does blocks or is blocked
+ */
+public class PersistentTree<E extends Comparable<? super E>> {
+    private final AtomicReference<Node<E>> root = new AtomicReference<>();  // Current version
+    private final String treeName;     // Name of tree
+
+    /**
+     * Create an empty tree
+     * @param label Name of tree
+     */
+    public PersistentTree(String label) {
+        treeName = label;
+    }
+
+    /**
+     * Create an ordered tree from list, built balanced
+     * @param arr   List of elements
+     * @param label Name of tree
+     */
+    public PersistentTree(E[] arr, String label) {
+        this(label);
+        E[] sorted = arr.clone();
+        Arrays.sort(sorted);
+        root.set(build(sorted, 0, sorted.length - 1));
+    }
+
+    /**
+     * The current version of the tree
+     * Complexity is O(1): versions are never changed, so nothing needs to be copied
+     * @return a read-only view that later changes do not affect
+     */
+    public Snapshot<E> snapshot() {
+        return new Snapshot<>(root.get(), treeName);
+    }
+
+    public boolean contains(E x) {
+        return snapshot().contains(x);
+    }
+
+    public int size() {
+        return snapshot().size();
+    }
+
+    public int height() {
+        return snapshot().height();
+    }
+
+    public String toString() {
+        return snapshot().toString();
+    }
+
+    public String toString2() {
+        return snapshot().toString2();
+    }
+
+    // ******************CHANGES********************************
+    // Each change reads the current root, builds a new one from it and publishes it with
+    // compareAndSet, starting again from the newer root if another writer got there first
+
+    // A change from one version of the tree to the next
+    private interface Change<E> {
+        Node<E> apply(Node<E> t);
+    }
+
+    /**
+     * Publish the result of change, retrying against the latest version until it wins
+     * @param change builds the next version from the current one
+     * @return the version that was published
+     */
+    private Node<E> publish(Change<E> change) {
+        while (true) {
+            Node<E> current = root.get();
+            Node<E> next = change.apply(current);
+            if (next == current || root.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Insert into the tree; duplicates are allowed
+     * Complexity is O(h): only the nodes on the search path are copied
+     * @param x the item to insert.
+     */
+    public void bstInsert(E x) {
+        publish(t -> bstInsert(x, t));
+    }
+
+    /**
+     * Copy the search path for x with x added at its end
+     * @param x the item to insert.
+     * @param t the node that roots the subtree.
+     * @return the new root of the subtree.
+     */
+    @SuppressWarnings("unchecked")
+    private Node<E> bstInsert(E x, Node<E> t) {
+        if (t == null)
+            return new Node<>(x, null, null);
+
+        Node<E>[] path = (Node<E>[]) new Node<?>[t.height + 1];
+        int length = 0;
+        while (t != null) {
+            path[length++] = t;
+            t = x.compareTo(t.element) < 0 ? t.left : t.right;
+        }
+        Node<E> node = new Node<>(x, null, null);
+        for (int i = length - 1; i >= 0; i--) {
+            Node<E> parent = path[i];
+            node = x.compareTo(parent.element) < 0
+                    ? new Node<>(parent.element, node, parent.right)
+                    : new Node<>(parent.element, parent.left, node);
+        }
+        return node;
+    }
+
+    /**
+     * Keep only nodes between a and b
+     * Complexity is O(h): only the nodes along the left and right edges of the range are copied,
+     * and whole subtrees inside the range are shared
+     * @param a lowest value
+     * @param b highest value
+     */
+    public void keepRange(E a, E b) {
+        publish(t -> keepRange(a, b, t));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node<E> keepRange(E a, E b, Node<E> t) {
+        while (t != null && (t.element.compareTo(a) < 0 || t.element.compareTo(b) > 0)) {
+            t = t.element.compareTo(a) < 0 ? t.right : t.left;
+        }
+        if (t == null) {
+            return null;
+        }
+
+        // Left edge: the nodes kept below t along left links, each left child below a
+        // being replaced by its right subtree, as in Tree.keepRange
+        Node<E>[] edge = (Node<E>[]) new Node<?>[t.height + 1];
+        int length = 0;
+        Node<E> node = t.left;
+        while (node != null) {
+            if (node.element.compareTo(a) < 0) {
+                node = node.right;
+            } else {
+                edge[length++] = node;
+                node = node.left;
+            }
+        }
+        Node<E> left = null;
+        for (int i = length - 1; i >= 0; i--) {
+            left = edge[i].left == left ? edge[i] : new Node<>(edge[i].element, left, edge[i].right);
+        }
+
+        // Right edge, the same way against b
+        length = 0;
+        node = t.right;
+        while (node != null) {
+            if (node.element.compareTo(b) > 0) {
+                node = node.left;
+            } else {
+                edge[length++] = node;
+                node = node.right;
+            }
+        }
+        Node<E> right = null;
+        for (int i = length - 1; i >= 0; i--) {
+            right = edge[i].right == right ? edge[i] : new Node<>(edge[i].element, edge[i].left, right);
+        }
+
+        return left == t.left && right == t.right ? t : new Node<>(t.element, left, right);
+    }
+
+    /**
+     * Remove every node that is not on a root to leaf path whose sum is at least threshold
+     * Complexity is O(n); only nodes with something removed below them are copied
+     * @param weight    the weight of each element
+     * @param threshold minimum path sum allowed in final tree
+     * @return number of nodes removed
+     */
+    public int pruneK(ToLongFunction<? super E> weight, long threshold) {
+        int[] removed = new int[1];
+        publish(t -> {
+            Node<E> next = pruneK(weight, threshold, t);
+            removed[0] = nodeSize(t) - nodeSize(next);
+            return next;
+        });
+        return removed[0];
+    }
+
+    /**
+     * Post-order pass with an explicit stack; each node's replacement is worked out from its
+     * children's replacements, which are kept in slots indexed by depth
+     */
+    @SuppressWarnings("unchecked")
+    private Node<E> pruneK(ToLongFunction<? super E> weight, long threshold, Node<E> t) {
+        if (t == null) {
+            return null;
+        }
+        int slots = t.height + 1;
+        Node<E>[] path = (Node<E>[]) new Node<?>[slots];
+        byte[] stage = new byte[slots];
+        long[] sum = new long[slots];
+        Node<E>[] newLeft = (Node<E>[]) new Node<?>[slots];
+        Node<E>[] newRight = (Node<E>[]) new Node<?>[slots];
+        Node<E> result = null;
+        int depth = 0;
+        path[0] = t;
+        while (depth >= 0) {
+            Node<E> node = path[depth];
+            Node<E> child = null;
+            switch (stage[depth]++) {
+                case 0:
+                    sum[depth] = (depth == 0 ? 0 : sum[depth - 1]) + weight.applyAsLong(node.element);
+                    if (sum[depth] >= threshold) {
+                        // Every path through here is long enough, so the subtree is kept as is
+                        newLeft[depth] = node.left;
+                        newRight[depth] = node.right;
+                        stage[depth] = 2;
+                    } else {
+                        child = node.left;
+                        newLeft[depth] = null;
+                    }
+                    break;
+                case 1:
+                    child = node.right;
+                    newRight[depth] = null;
+                    break;
+                default:
+                    Node<E> kept;
+                    if (newLeft[depth] == null && newRight[depth] == null && sum[depth] < threshold) {
+                        kept = null;
+                    } else if (newLeft[depth] == node.left && newRight[depth] == node.right) {
+                        kept = node;
+                    } else {
+                        kept = new Node<>(node.element, newLeft[depth], newRight[depth]);
+                    }
+                    depth--;
+                    if (depth < 0) {
+                        result = kept;
+                    } else if (stage[depth] == 1) {
+                        newLeft[depth] = kept;
+                    } else {
+                        newRight[depth] = kept;
+                    }
+            }
+            if (child != null) {
+                depth++;
+                path[depth] = child;
+                stage[depth] = 0;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replace the tree with a perfectly balanced one holding the same elements
+     * Complexity is O(n); every node is new, as almost every node's children change
+     */
+    public void balanceTree() {
+        publish(t -> {
+            if (t == null) {
+                return null;
+            }
+            Object[] elements = new Snapshot<>(t, treeName).toArray();
+            return build(elements, 0, elements.length - 1);
+        });
+    }
+
+    /**
+     * Build a balanced tree from a sorted range, middle element at the root
+     * @param sorted elements in order
+     * @param lo     first index of the range
+     * @param hi     last index of the range
+     * @return root of the new subtree
+     */
+    @SuppressWarnings("unchecked")
+    private static <E> Node<E> build(Object[] sorted, int lo, int hi) {
+        if (lo > hi) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        return new Node<>((E) sorted[mid], build(sorted, lo, mid - 1), build(sorted, mid + 1, hi));
+    }
+
+    private static int nodeSize(Node<?> t) {
+        return t == null ? 0 : t.size;
+    }
+
+    private static int nodeHeight(Node<?> t) {
+        return t == null ? -1 : t.height;
+    }
+
+    // ******************SNAPSHOT********************************
+
+    /**
+     * One version of a PersistentTree
+     * Safe to share between threads without locking, as none of its nodes can change
+     */
+    public static class Snapshot<E extends Comparable<? super E>> implements Iterable<E> {
+        private final Node<E> root;
+        private final String treeName;
+
+        private Snapshot(Node<E> root, String treeName) {
+            this.root = root;
+            this.treeName = treeName;
+        }
+
+        /**
+         * Complexity is O(h)
+         * @param x the item to search for
+         * @return true if x is in this version
+         */
+        public boolean contains(E x) {
+            Node<E> t = root;
+            while (t != null) {
+                int compare = x.compareTo(t.element);
+                if (compare == 0) {
+                    return true;
+                }
+                t = compare < 0 ? t.left : t.right;
+            }
+            return false;
+        }
+
+        public int size() {
+            return nodeSize(root);
+        }
+
+        public int height() {
+            return nodeHeight(root);
+        }
+
+        /**
+         * @return the elements in order
+         */
+        public Object[] toArray() {
+            return toArray(new Object[size()]);
+        }
+
+        /**
+         * The elements in order, in the given array if they fit, as Collection.toArray does
+         * e.g. Integer[] elements = snapshot.toArray(new Integer[0]);
+         * @param a the array to fill, or an array of the wanted type if it is too small
+         * @return the filled array; if a was larger, the slot after the last element is null
+         */
+        @SuppressWarnings("unchecked")
+        public <T> T[] toArray(T[] a) {
+            int n = size();
+            T[] elements = a.length >= n ? a : (T[]) Array.newInstance(a.getClass().getComponentType(), n);
+            int i = 0;
+            for (E x : this) {
+                elements[i++] = (T) x;
+            }
+            if (elements.length > n) {
+                elements[n] = null;
+            }
+            return elements;
+        }
+
+        /**
+         * @return a string displaying the tree contents as a tree with one node per line,
+         * as Tree.toString() does
+         */
+        public String toString() {
+            if (root == null) {
+                return treeName + " Empty tree\n";
+            }
+            StringBuilder sb = new StringBuilder(treeName).append('\n');
+            String indent = " ".repeat(2 * height());
+            // Reverse in order, so the right side prints above the root
+            ArrayDeque<Node<E>> stack = new ArrayDeque<>();
+            int[] depths = new int[height() + 1];
+            Node<E> t = root;
+            int depth = 0;
+            while (t != null || !stack.isEmpty()) {
+                while (t != null) {
+                    depths[stack.size()] = depth;
+                    stack.push(t);
+                    t = t.right;
+                    depth++;
+                }
+                depth = depths[stack.size() - 1];
+                t = stack.pop();
+                sb.append(indent, 0, 2 * depth).append(t.element).append('\n');
+                t = t.left;
+                depth++;
+            }
+            return sb.toString();
+        }
+
+        /**
+         * @return string displaying the tree contents as a single line
+         */
+        public String toString2() {
+            if (root == null) {
+                return treeName + " Empty tree";
+            }
+            StringBuilder sb = new StringBuilder(treeName).append(' ');
+            for (E x : this) {
+                sb.append(x).append(' ');
+            }
+            return sb.toString();
+        }
+
+        /**
+         * @return in order iterator over this version; later changes to the tree do not affect it
+         */
+        public Iterator<E> iterator() {
+            return new Iterator<E>() {
+                private final ArrayDeque<Node<E>> stack = new ArrayDeque<>();
+
+                {
+                    descend(root);
+                }
+
+                public boolean hasNext() {
+                    return !stack.isEmpty();
+                }
+
+                public E next() {
+                    if (stack.isEmpty())
+                        throw new NoSuchElementException();
+                    Node<E> node = stack.pop();
+                    descend(node.right);
+                    return node.element;
+                }
+
+                private void descend(Node<E> t) {
+                    for (; t != null; t = t.left) {
+                        stack.push(t);
+                    }
+                }
+            };
+        }
+    }
+
+    // Node that is never changed after it is built; height and size are worked out once
+    private static final class Node<E> {
+        final E element;      // The data in the node
+        final Node<E> left;   // Left child
+        final Node<E> right;  // Right child
+        final int height;     // Height of subtree rooted here
+        final int size;       // Number of nodes in subtree rooted here
+
+        Node(E theElement, Node<E> lt, Node<E> rt) {
+            element = theElement;
+            left = lt;
+            right = rt;
+            height = 1 + Math.max(nodeHeight(lt), nodeHeight(rt));
+            size = 1 + nodeSize(lt) + nodeSize(rt);
+        }
+    }
+}
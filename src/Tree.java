@@ -1,24 +1,46 @@
-// ******************ERRORS********************************
-// Throws UnderflowException as appropriate
-
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.Objects;
 
-class UnderflowException extends RuntimeException {
-    /**
-     * Construct this exception object.
-     *
-     * @param message the error message.
-     */
-    public UnderflowException(String message) {
-        super(message);
-    }
-}
+public class Tree<E extends Comparable<? super E>> implements OrderedTree<E> {
+    private static final int ALLOWED_IMBALANCE = 1;
 
-public class Tree<E extends Comparable<? super E>> {
     public BinaryNode<E> root;  // Root of tree
     private String treeName;     // Name of tree
+    private boolean balanced;    // Rebalance (AVL) on every bstInsert
+    private double rebalanceFactor;  // balanceTree once height exceeds this times log2(size), 0 for never
+    private boolean ordered = true;  // Built only through bstInsert or sorting, so searches can descend
+    private int modCount;        // Changed by every operation that changes the tree
+    private LcaIndex<E> lcaIndex;    // Answers lca on unordered trees, valid while modCount is unchanged
+    private LevelProfile<E> profile; // Node counts per level, valid while modCount is unchanged
+    private ForkJoinPool pool;   // Runs large whole-tree passes in parallel, null for sequential
+    private int parallelThreshold;   // Subtrees at most this size are not split
+    private TreeMetrics metrics;     // Where operations are counted, null when not counting
+    private TreeMetrics.Probe probe; // Counts for the outermost operation in progress
+    private int profileModCount;
+    private BinaryNode<E> profileRoot;
 
     /**
      * Create an empty tree
@@ -29,14 +51,41 @@ public class Tree<E extends Comparable<? super E>> {
         root = null;
     }
 
+    /**
+     * Create an empty tree, optionally kept height balanced
+     * @param label    Name of tree
+     * @param balanced true to rebalance (AVL) on every bstInsert
+     */
+    public Tree(String label, boolean balanced) {
+        this(label);
+        this.balanced = balanced;
+    }
+
     /**
      * Create non ordered tree from list in preorder
      * @param arr   List of elements
      * @param label Name of tree
      */
     public Tree(E[] arr, String label, boolean ordered) {
+        this(arr, label, ordered, false);
+    }
+
+    /**
+     * Create tree from list, optionally kept height balanced
+     * Balancing only applies to ordered trees, since it relies on bstInsert
+     * A balanced tree is bulk loaded: the list is sorted once and built directly
+     * @param arr      List of elements
+     * @param label    Name of tree
+     * @param ordered  true to build a BST, false to build by preorder
+     * @param balanced true to rebalance (AVL) on every bstInsert
+     */
+    public Tree(E[] arr, String label, boolean ordered, boolean balanced) {
         treeName = label;
-        if (ordered) {
+        this.balanced = balanced && ordered;
+        this.ordered = ordered;
+        if (this.balanced) {
+            root = bulkLoad(arr);
+        } else if (ordered) {
             root = null;
             for (int i = 0; i < arr.length; i++) {
                 bstInsert(arr[i]);
@@ -44,6 +93,36 @@ public class Tree<E extends Comparable<? super E>> {
         } else root = buildUnordered(arr, 0, arr.length - 1);
     }
 
+    /**
+     * Build a balanced BST in one pass instead of n separate bstInsert calls
+     * Sorts a copy of the list once (in parallel for large lists), then builds
+     * by always taking the middle element, so complexity is O(n log n)
+     * @param arr nodes to be added; not modified
+     * @return root of new tree
+     */
+    private BinaryNode<E> bulkLoad(E[] arr) {
+        E[] sorted = arr.clone();
+        Arrays.parallelSort(sorted);
+        return buildBalanced(sorted, 0, sorted.length - 1);
+    }
+
+    /**
+     * Build a balanced BST from a sorted list
+     * @param sorted nodes to be added, in order
+     * @param low    first index to use
+     * @param high   last index to use
+     * @return root of new subtree
+     */
+    private BinaryNode<E> buildBalanced(E[] sorted, int low, int high) {
+        if (low > high) return null;
+        int mid = (low + high) / 2;
+        BinaryNode<E> curr = newNode(sorted[mid]);
+        curr.left = buildBalanced(sorted, low, mid - 1);
+        curr.right = buildBalanced(sorted, mid + 1, high);
+        update(curr);
+        return curr;
+    }
+
     /**
      * Build a NON BST tree by preorder
      * @param arr nodes to be added
@@ -52,9 +131,10 @@ public class Tree<E extends Comparable<? super E>> {
     private BinaryNode<E> buildUnordered(E[] arr, int low, int high) {
         if (low > high) return null;
         int mid = (low + high) / 2;
-        BinaryNode<E> curr = new BinaryNode<>(arr[mid], null, null);
+        BinaryNode<E> curr = newNode(arr[mid]);
         curr.left = buildUnordered(arr, low, mid - 1);
         curr.right = buildUnordered(arr, mid + 1, high);
+        update(curr);
         return curr;
     }
     /**
@@ -70,6 +150,88 @@ public class Tree<E extends Comparable<? super E>> {
         }
     }
 
+    /**
+     * Load a tree saved by writeTo, reading it through a memory map
+     * Complexity is O(n): one pass over the saved shape and keys, with no comparisons, so
+     * loading is bound by reading the file rather than by inserting
+     * @param file  the saved tree
+     * @param codec how the keys were written
+     * @param label Name of tree
+     * @throws IOException if the file cannot be read or is not a saved tree
+     */
+    @SuppressWarnings("unchecked")
+    public Tree(Path file, KeyCodec<E> codec, String label) throws IOException {
+        treeName = label;
+        ByteBuffer buffer = TreeFile.map(file, false, 0);
+        int n = TreeFile.readHeader(buffer, codec);
+        ordered = TreeFile.isOrdered(buffer);
+        int keys = TreeFile.keysOffset(n);
+
+        // Nodes still waiting for children, with the structure bits of the ones not yet seen;
+        // a node is popped as soon as its last child is attached
+        BinaryNode<E>[] stack = (BinaryNode<E>[]) new BinaryNode<?>[32];
+        int[] pending = new int[32];
+        int depth = 0;
+        for (int i = 0; i < n; i++) {
+            BinaryNode<E> node = newNode(codec.read(buffer, keys + i * codec.width()));
+            if (i == 0) {
+                root = node;
+            } else if (depth == 0) {
+                throw new IOException("saved tree has nodes past its last leaf");
+            } else {
+                int top = depth - 1;
+                if ((pending[top] & 1) != 0) {
+                    stack[top].left = node;
+                    pending[top] &= ~1;
+                } else {
+                    stack[top].right = node;
+                    pending[top] = 0;
+                }
+                if (pending[top] == 0) depth--;
+            }
+            int children = TreeFile.children(buffer, i);
+            if (children != 0) {
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                    pending = Arrays.copyOf(pending, depth * 2);
+                }
+                stack[depth] = node;
+                pending[depth] = children;
+                depth++;
+            }
+        }
+        if (depth != 0) {
+            throw new IOException("saved tree is truncated");
+        }
+        refresh(root);
+    }
+
+    /**
+     * Save the tree in binary form: its shape as 2 bits per node, then its keys, both in preorder
+     * The file is written through a memory map; see TreeFile for the layout
+     * Complexity is O(n)
+     * @param file  where to save; replaced if it exists
+     * @param codec how to write the keys
+     * @throws IOException if the file cannot be written
+     */
+    public void writeTo(Path file, KeyCodec<E> codec) throws IOException {
+        int n = size();
+        int width = codec.width();
+        MappedByteBuffer buffer = TreeFile.map(file, true, TreeFile.fileSize(n, width));
+        TreeFile.writeHeader(buffer, n, width, ordered);
+        int keys = TreeFile.keysOffset(n);
+        int[] next = {0};
+        walk(root, false, new Walker<E>() {
+            boolean enter(BinaryNode<E> node, int depth) {
+                int i = next[0]++;
+                TreeFile.setChildren(buffer, i, node.left != null, node.right != null);
+                codec.write(buffer, keys + i * width, node.element);
+                return true;
+            }
+        });
+        buffer.force();
+    }
+
     /**
      * Change name of tree
      * @param name new name of tree
@@ -84,115 +246,187 @@ public class Tree<E extends Comparable<? super E>> {
      * @return a string displaying the tree contents as a tree with one node per line
      */
     public String toString() {
-        if (root == null)
-            return (treeName + " Empty tree\n");
-        else
-            //return treeName + "\n" + toString2(root);
-            return treeName+"\n" + toString(root,"");
+        TreeMetrics.Probe started = begin();
+        try {
+            StringBuilder sb = new StringBuilder();
+            try {
+                render(sb);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);    // StringBuilder never throws
+            }
+            return sb.toString();
+        } finally {
+            end("toString", started);
+        }
     }
 
     /**
-     * Internal recursive function that performs opposite of in-order traversal
-     * (right, node, left)
-     * Only appends to final string when working with current node
-     * @param t current working node
-     * @param indent How far out to put the node's values when we print them to represent depth
-     * @return just the nodes printed with indents and in opposite order of in-order traversal
+     * @return string displaying the tree contents as a single line
      */
-    private String toString(BinaryNode<E> t, String indent) {
-        StringBuilder sb = new StringBuilder();
-        if(t.right != null){
-            sb.append(toString(t.right, indent + "  "));
+    public String toString2() {
+        TreeMetrics.Probe started = begin();
+        try {
+            StringBuilder sb = new StringBuilder();
+            try {
+                renderInline(sb);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return sb.toString();
+        } finally {
+            end("toString2", started);
         }
-        sb.append(indent + t.toString() + "\n");
-        if (t.left != null){
-            sb.append(toString(t.left, indent + "  "));
+    }
+
+    /**
+     * Write the tree with one node per line, as toString() returns it, straight to out
+     * Complexity is linear in the size of the output: nothing is built per node, and every
+     * indent is a prefix of one shared string of spaces
+     * @param out where to write, such as a Writer or StringBuilder
+     * @throws IOException if out does
+     */
+    public void render(Appendable out) throws IOException {
+        if (root == null) {
+            out.append(treeName).append(" Empty tree\n");
+            return;
         }
-        return sb.toString();
+        out.append(treeName).append('\n');
+        String indent = " ".repeat(2 * height());
+        write(out, root, true, new Walker<E>() {
+            void between(BinaryNode<E> node, int depth) {
+                append(out, indent, 2 * depth);
+                append(out, String.valueOf(node.element), -1);
+                append(out, "\n", -1);
+            }
+        });
     }
 
     /**
-     * @return string displaying the tree contents as a single line
+     * Write the tree contents on a single line, as toString2() returns it, straight to out
+     * @param out where to write, such as a Writer or StringBuilder
+     * @throws IOException if out does
      */
-    public String toString2() {
-        if (root == null)
-            return treeName + " Empty tree";
-        else
-            return treeName + " " + toString2(root);
+    public void renderInline(Appendable out) throws IOException {
+        if (root == null) {
+            out.append(treeName).append(" Empty tree");
+            return;
+        }
+        out.append(treeName).append(' ');
+        write(out, root, false, new Walker<E>() {
+            void between(BinaryNode<E> node, int depth) {
+                append(out, String.valueOf(node.element), -1);
+                append(out, " ", -1);
+            }
+        });
+    }
+
+    /**
+     * Walk the tree with a walker that writes to out, passing on any IOException it hits
+     * @param out     where the walker writes
+     * @param start   the node that roots the subtree to walk
+     * @param reverse false to go left then right, true to go right then left
+     * @param walker  the callbacks to make
+     * @throws IOException if out does
+     */
+    private void write(Appendable out, BinaryNode<E> start, boolean reverse, Walker<E> walker) throws IOException {
+        try {
+            walk(start, reverse, walker);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
     /**
-     * Internal method to return a string of items in the tree in order
-     * @param t Our current working node
-     * @return The values found in the nodes lined up through the opposite of in-order traversal
+     * Append text from inside a walker callback, which cannot throw IOException
+     * @param out    where to write
+     * @param text   what to write
+     * @param length how many leading characters of text to write, or -1 for all of it
      */
-    private String toString2(BinaryNode<E> t) {
-        if (t == null) return "";
-        StringBuilder sb = new StringBuilder();
-        sb.append(toString2(t.left));
-        sb.append(t.element.toString() + " ");
-        sb.append(toString2(t.right));
-        return sb.toString();
+    private static void append(Appendable out, String text, int length) {
+        try {
+            if (length < 0) {
+                out.append(text);
+            } else {
+                out.append(text, 0, length);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
      * Task 2
      * Complexity is O(n) because we run through each of the n nodes and flip them
-     * Reverse left and right children recursively
+     * Reverse left and right children
      * Method with no parameters can be called by user to use on an entire tree
      */
     public void flip() {
-        flip(root);
+        TreeMetrics.Probe started = begin();
+        try {
+            flip(root);
+            modCount++;
+            if (root != null) ordered = false;
+        } finally {
+            end("flip", started);
+        }
     }
 
     /**
      * Internal method that does all the flipping
      * Cannot be called by user
      * Uses three nodes to switch two of them (parent.left and parent.right)
-     * @param parent the node we're currently working with
+     * Large subtrees are split across the fork/join pool in parallel mode
+     * @param parent the node that roots the subtree to flip
      */
     private void flip(BinaryNode<E> parent){
-        if(parent == null){
+        if (splits(parent)) {
+            pool.invoke(new FlipTask(parent));
             return;
         }
-        BinaryNode<E> hold = parent.right;
-        parent.right = parent.left;
-        parent.left = hold;
-        flip(parent.left);
-        flip(parent.right);
+        walk(parent, false, new Walker<E>() {
+            boolean enter(BinaryNode<E> node, int depth) {
+                BinaryNode<E> hold = node.right;
+                node.right = node.left;
+                node.left = hold;
+                return true;
+            }
+        });
     }
 
     /**
      * Task 3
-     * Complexity is 2n because we go through the tree once to find the height
-     * ...then again to find a corresponding node
-     * Find the height of the tree
-     * Find a node that is that many moves away from the root and return it
+     * Complexity is O(h) because every node stores the height below it,
+     * so we only follow the taller child down from the root
+     * Find a node that is height() moves away from the root and return it
      */
     public E deepestNode() {
-        return deepestNode(root, height());
+        TreeMetrics.Probe started = begin();
+        try {
+            return deepestNode(root);
+        } finally {
+            end("deepestNode", started);
+        }
     }
 
     /**
-     * Go through the nodes and get the deepest one that is not null
-     * @param parent the current working node
-     * @param recurseCount how to keep track of what level of the tree I am in
-     * @return the deepest level node
+     * Go down from parent, always into the taller child (the left one on a tie)
+     * @param parent the node to start from
+     * @return the leftmost node at the deepest level, or null if there is none
      */
-    private E deepestNode(BinaryNode<E> parent, int recurseCount){
-        if(parent == null){
+    private E deepestNode(BinaryNode<E> parent){
+        if (parent == null) {
             return null;
-        } else if(recurseCount == 0) {
-            return parent.element;
-        } else if(deepestNode(parent.left, recurseCount - 1) == null){
-            return deepestNode(parent.right, recurseCount - 1);
-        } else{
-            return deepestNode(parent.left, recurseCount - 1);
         }
+        for (int depth = 1; parent.left != null || parent.right != null; depth++) {
+            visit(depth);
+            parent = nodeHeight(parent.left) >= nodeHeight(parent.right) ? parent.left : parent.right;
+        }
+        return parent.element;
     }
 
     /**
      * Get the height of the tree so we can find the deepest node
+     * Complexity is O(1) because the root stores it
      * @return the integer of the height
      */
     public int height(){
@@ -200,43 +434,66 @@ public class Tree<E extends Comparable<? super E>> {
     }
 
     /**
-     * Return the height of the tallest branch of the root
+     * Return the height of the tallest branch of the node, as stored in the node
      * @param node current working node
      * @return the height of the tallest branch
      */
     public int height(BinaryNode<E> node){
-        if(node == null){
-            return -1;
-        }
-        return Math.max(height(node.left), height(node.right)) + 1;
+        return nodeHeight(node);
+    }
+
+    /**
+     * @return number of nodes in the tree
+     */
+    public int size() {
+        return nodeSize(root);
     }
 
     /**
      * Task 4
-     * Complexity is O(n) because we run through each of the n nodes either 0 or 1 times, depending on the level
+     * Complexity is O(1) once the level profile is built; building it is O(n) and
+     * only happens again after the tree changes
      * Counts number of nodes in specified level
      * @param level Level in tree, root is zero
      * @return count of number of nodes at specified level
      */
     public int nodesInLevel(int level) {
-        return nodesInLevel(level, 0, root);
+        TreeMetrics.Probe started = begin();
+        try {
+            int[] counts = levelProfile().counts;
+            return (level < 0 || level >= counts.length) ? 0 : counts[level];
+        } finally {
+            end("nodesInLevel", started);
+        }
     }
 
     /**
-     * Internal method adds up all the nodes at the level
-     * @param level The level we need to get to so we can count the nodes there
-     * @param recursion How many levels down we've gone by using recursion
-     * @param node The current node we're working with
-     * @return number of nodes at the desired level of the branches of the node
+     * Node counts for every level, from one breadth first pass
+     * The profile is kept until the next change to the tree
+     * @return the level profile
      */
-    private int nodesInLevel(int level, int recursion, BinaryNode<E> node){
-        if((level == recursion) && (node != null)){
-            return 1;
-        } else if(node == null){
-            return 0;
-        } else{
-            return nodesInLevel(level, recursion + 1, node.left) + nodesInLevel(level, recursion + 1, node.right);
+    public LevelProfile<E> levelProfile() {
+        if (profile == null || profileModCount != modCount || profileRoot != root) {
+            profile = buildLevelProfile();
+            profileModCount = modCount;
+            profileRoot = root;
         }
+        return profile;
+    }
+
+    /**
+     * Count the nodes on each level and collect the ones on the deepest level
+     * @return the new profile
+     */
+    private LevelProfile<E> buildLevelProfile() {
+        int deepest = height();
+        int[] counts = new int[deepest + 1];
+        List<E> deepestNodes = new ArrayList<>();
+        levelOrder(root, (node, depth) -> {
+            counts[depth]++;
+            if (depth == deepest) deepestNodes.add(node.element);
+        });
+        return new LevelProfile<>(counts, Collections.unmodifiableList(deepestNodes));
     }
 
     /**
@@ -245,78 +502,259 @@ public class Tree<E extends Comparable<? super E>> {
      * Print all paths from root to leaves
      */
     public void printAllPaths() {
-        printAllPaths(root, root.toString());
+        TreeMetrics.Probe started = begin();
+        try {
+            StringBuilder sb = new StringBuilder();
+            forEachPath(path -> {
+                sb.setLength(0);
+                for (int i = 0; i < path.size(); i++) {
+                    if (i > 0) sb.append(' ');
+                    sb.append(path.get(i));
+                }
+                System.out.println(sb);
+            });
+        } finally {
+            end("printAllPaths", started);
+        }
     }
 
     /**
-     * Doesn't return anything; just prints the paths as leaf node is found
-     * Moving left to right
-     * @param parent Current working node
-     * @param chain String listing the nodes we've picked up so far
+     * Callback for forEachPath()
      */
-    private void printAllPaths(BinaryNode<E> parent, String chain){
-        if((parent.left == null) && (parent.right == null)){
-            System.out.println(chain);
-            return;
+    public interface PathVisitor<E> {
+        /**
+         * @param path the elements from the root down to a leaf, as a read-only view of one
+         *             buffer that is reused for every path, so copy out anything that must be kept
+         */
+        void visit(List<E> path);
+    }
+
+    // Read-only view of the first length elements of a buffer, reused by forEachPath() for every path
+    private static class PathBuffer<E> extends AbstractList<E> implements RandomAccess {
+        private final Object[] elements;
+        private int length;
+
+        PathBuffer(int capacity) {
+            elements = new Object[capacity];
+        }
+
+        @SuppressWarnings("unchecked")
+        public E get(int index) {
+            Objects.checkIndex(index, length);
+            return (E) elements[index];
+        }
+
+        public int size() {
+            return length;
+        }
+    }
+
+    /**
+     * Hand every root to leaf path to visitor, moving left to right
+     * One buffer, sized to the height, holds the current path, so nothing is allocated per step
+     * @param visitor called once per leaf
+     */
+    public void forEachPath(PathVisitor<E> visitor) {
+        TreeMetrics.Probe started = begin();
+        try {
+            PathBuffer<E> chain = new PathBuffer<>(height() + 1);
+            walk(root, false, new Walker<E>() {
+                boolean enter(BinaryNode<E> node, int depth) {
+                    chain.elements[depth] = node.element;
+                    if ((node.left == null) && (node.right == null)) {
+                        chain.length = depth + 1;
+                        visitor.visit(chain);
+                    }
+                    return true;
+                }
+            });
+        } finally {
+            end("forEachPath", started);
+        }
+    }
+
+    /**
+     * Root to leaf paths, moving left to right, found one at a time as the iterator is used
+     * @return iterator over the paths
+     * @throws ConcurrentModificationException from next() if the tree changes while iterating
+     */
+    public Iterator<List<E>> pathIterator() {
+        return new PathIterator();
+    }
+
+    /**
+     * Root to leaf paths as a lazy stream, moving left to right
+     * @return stream of the paths
+     */
+    public Stream<List<E>> paths() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pathIterator(),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    // Keeps the nodes on the current path as a stack and moves to the next leaf on each next()
+    private class PathIterator implements Iterator<List<E>> {
+        private final List<BinaryNode<E>> path = new ArrayList<>();
+        private final int expectedModCount = modCount;
+
+        PathIterator() {
+            if (root != null) {
+                path.add(root);
+                descendToLeaf();
+            }
+        }
+
+        public boolean hasNext() {
+            return !path.isEmpty();
         }
-        if(parent.left != null){
-            printAllPaths(parent.left, chain + " " + parent.left.toString());
+
+        @SuppressWarnings("unchecked")
+        public List<E> next() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (path.isEmpty())
+                throw new NoSuchElementException();
+
+            E[] result = (E[]) new Comparable<?>[path.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = path.get(i).element;
+            }
+
+            // Back up to the nearest ancestor with a right subtree not yet visited
+            BinaryNode<E> child = path.remove(path.size() - 1);
+            while (!path.isEmpty()) {
+                BinaryNode<E> parent = path.get(path.size() - 1);
+                if (child == parent.left && parent.right != null) {
+                    path.add(parent.right);
+                    descendToLeaf();
+                    break;
+                }
+                child = path.remove(path.size() - 1);
+            }
+            return Collections.unmodifiableList(Arrays.asList(result));
         }
-        if(parent.right != null){
-            printAllPaths(parent.right, chain + " " + parent.right.toString());
+
+        // Follow left children (right when there is no left) down to a leaf
+        private void descendToLeaf() {
+            BinaryNode<E> node = path.get(path.size() - 1);
+            while (node.left != null || node.right != null) {
+                node = node.left != null ? node.left : node.right;
+                path.add(node);
+            }
         }
     }
 
     /**
      * Task 6
-     * Complexity is O(n) because we check every node connected to a path
+     * Complexity is O(n) because we check every node connected to a path once
      * Remove all paths from tree that sum to less than given value
+     * Elements are weighed by their numeric value, or by parsing toString() if they are not numbers
      * @param sum: minimum path sum allowed in final tree
      */
     public void pruneK(Integer sum) {
-        if(!pruneK(sum, 0, root)){
-            root = null;
-        }
+        pruneK(e -> (e instanceof Number) ? ((Number) e).longValue() : Long.parseLong(e.toString()), sum);
     }
 
     /**
-     * Check if the paths have the "sum"
-     * If not, delete the irrelevant nodes
-     * @param sum: minimum path sum allowed in final tree
-     * @param currentSum The sum we currently have as we add up the nodes in the current path
-     * @param node Current working node
-     * @return
+     * Remove all paths from tree whose weights sum to less than the threshold
+     * A node is kept once the path down to it reaches the threshold, or if any node below it is kept
+     * Complexity is O(n): one post-order pass, and no subtree is checked twice
+     * @param weight    the weight of each element
+     * @param threshold minimum path sum allowed in final tree
+     * @return number of nodes removed
      */
-    private boolean pruneK(Integer sum, Integer currentSum, BinaryNode<E> node){
-        if(node == null){
-            return false;
+    public int pruneK(ToLongFunction<? super E> weight, long threshold) {
+        TreeMetrics.Probe started = begin();
+        try {
+            modCount++;
+            int n = size();
+            int removed = pruneK(weight, threshold, root, 0);
+            if (removed == n) root = null;
+            return removed;
+        } finally {
+            end("pruneK", started);
         }
+    }
 
-        currentSum += Integer.parseInt(node.toString());
-        if((currentSum > sum) || (currentSum.equals(sum))){
-            return true;
-        } else if(pruneK(sum, currentSum, node.left) && pruneK(sum, currentSum, node.right)) {
-            return true;
-        } else if((!pruneK(sum, currentSum, node.left)) && (!pruneK(sum, currentSum, node.right))){
-            postOrderDeletion(node);
-            node = null;
-            return false;
-        } else{
-            return true;
+    /**
+     * Check if the paths have the threshold
+     * Children are checked before their parent, so a parent that loses all its children
+     * is checked again as a leaf
+     * Path sums and the nodes on the path are kept in arrays indexed by depth
+     * node itself is removed exactly when its whole subtree is, which is left to the caller to unlink
+     * Large subtrees are split across the fork/join pool in parallel mode
+     * @param weight    the weight of each element
+     * @param threshold minimum path sum allowed in final tree
+     * @param node the node that roots the subtree to prune
+     * @param above     sum of the path down to node's parent
+     * @return number of nodes removed
+     */
+    private int pruneK(ToLongFunction<? super E> weight, long threshold, BinaryNode<E> node, long above){
+        if (splits(node)) {
+            return pool.invoke(new PruneTask(weight, threshold, node, above));
         }
+        return prunePass(weight, threshold, node, above);
+    }
+
+    /**
+     * Sequential pruning pass used by pruneK
+     * @param weight    the weight of each element
+     * @param threshold minimum path sum allowed in final tree
+     * @param node      the node that roots the subtree to prune
+     * @param above     sum of the path down to node's parent
+     * @return number of nodes removed
+     */
+    @SuppressWarnings("unchecked")
+    private int prunePass(ToLongFunction<? super E> weight, long threshold, BinaryNode<E> node, long above) {
+        BinaryNode<E>[] path = (BinaryNode<E>[]) new BinaryNode<?>[nodeHeight(node) + 1];
+        long[] prefix = new long[path.length];
+        int[] removed = {0};
+        walk(node, false, new Walker<E>() {
+            boolean enter(BinaryNode<E> n, int depth) {
+                path[depth] = n;
+                long currentSum = (depth == 0 ? above : prefix[depth - 1]) + weight.applyAsLong(n.element);
+                prefix[depth] = currentSum;
+                return currentSum < threshold;
+            }
+
+            void exit(BinaryNode<E> n, int depth) {
+                if ((n.left != null) || (n.right != null)) {
+                    update(n);
+                    return;
+                }
+                removed[0]++;
+                if (depth == 0) {
+                    return;
+                }
+                BinaryNode<E> parent = path[depth - 1];
+                if (parent.left == n) {
+                    parent.left = null;
+                } else {
+                    parent.right = null;
+                }
+            }
+        });
+        return removed[0];
     }
 
     /**
      * Does the post-order deletion of a binary search tree
      * Does not delete the root node, but we do that in public pruneK()
+     * The node's ancestors are not known here, so stored sizes are recomputed for the whole tree
      * @param node
      */
     public void postOrderDeletion(BinaryNode<E> node){
-        if(node != null){
-            postOrderDeletion(node.left);
-            node.left = null;
-            postOrderDeletion(node.right);
-            node.right = null;
+        TreeMetrics.Probe started = begin();
+        try {
+            modCount++;
+            walk(node, false, new Walker<E>() {
+                void exit(BinaryNode<E> n, int depth) {
+                    n.left = null;
+                    n.right = null;
+                }
+            });
+            refresh(root);
+        } finally {
+            end("postOrderDeletion", started);
         }
     }
 
@@ -324,73 +762,122 @@ public class Tree<E extends Comparable<? super E>> {
 
     /**
      * Task 7
-     * Complexity is O(n) and possibly log n at best
+     * Complexity is O(h) for a tree built in order, since we follow one path down to where a and b split
+     * Otherwise the tree is indexed in O(n log n) on the first call after a change,
+     * and each call is then O(1)
      * Find the least common ancestor of two nodes
      * @param a first node
      * @param b second node
      * @return String representation of ancestor
      */
     public String lca(E a, E b) {
-        if(a == b){
-            return a.toString();
-        }
-
-        if((!contains(a)) || (!contains(b))){
-            return "none";
-        }
+        TreeMetrics.Probe started = begin();
+        try {
+            if(compare(a, b) == 0){
+                return a.toString();
+            }
 
-        String ancestor = lca(root, a, b);
+            String ancestor = ordered ? orderedLca(root, a, b) : lcaIndex().lca(a, b);
 
-        if (ancestor == null){
-            return "none";
-        } else{
-            return ancestor;
+            if (ancestor == null){
+                return "none";
+            } else{
+                return ancestor;
+            }
+        } finally {
+            end("lca", started);
         }
     }
 
     /**
-     * Returns the string of either the left or right lca
-     * Idk how to pick which one
+     * Walk down from t until a and b are no longer on the same side
+     * Only valid when the tree is ordered
      * @param t node
-     * @param a lower bound
-     * @param b upper bound
-     * @return string of the lca node
+     * @param a first node
+     * @param b second node
+     * @return string of the lca node, or null if either node is missing
      */
-    private String lca(BinaryNode<E> t, E a, E b) {
-        if (t == null){
+    private String orderedLca(BinaryNode<E> t, E a, E b) {
+        if (!contains(a, t) || !contains(b, t)) {
             return null;
         }
-
-        String right;
-        String left;
-
-        if(t.right != null){
-            System.out.println(t.right);
-            if(contains(a, t.right) && contains(b, t.right)){
-                right = lca(t.right, a, b);
-            } else{
-                right = t.toString();
+        for (int depth = 0; t != null; depth++) {
+            visit(depth);
+            int compareA = compare(a, t.element);
+            int compareB = compare(b, t.element);
+            if (compareA < 0 && compareB < 0) {
+                t = t.left;
+            } else if (compareA > 0 && compareB > 0) {
+                t = t.right;
+            } else {
+                return t.toString();
             }
-        } else{
-            right = t.toString();
         }
-        if(t.left != null){
-            System.out.println(t.left);
-            if(contains(a, t.left) && contains(b, t.left)){
-                left = lca(t.left, a, b);
-            } else{
-                left = t.toString();
+        return null;
+    }
+
+    /**
+     * Find the least common ancestor of many pairs against the same tree
+     * An unordered tree is indexed once, then each pair is answered in O(1)
+     * @param a first node of each pair
+     * @param b second node of each pair
+     * @return String representation of each pair's ancestor, "none" where either node is missing
+     */
+    public String[] lca(E[] a, E[] b) {
+        TreeMetrics.Probe started = begin();
+        try {
+            if (a.length != b.length) {
+                throw new IllegalArgumentException("lca needs the same number of first and second nodes");
             }
-        } else{
-            left = t.toString();
+            String[] ancestors = new String[a.length];
+            for (int i = 0; i < a.length; i++) {
+                ancestors[i] = lca(a[i], b[i]);
+            }
+            return ancestors;
+        } finally {
+            end("lcaBatch", started);
         }
+    }
 
-        // if one node is the parent of the other, return the child
-        if (left == null) {
-            return right;
-        } else{
-            return left;
+    /**
+     * Get the index for lca queries on an unordered tree, rebuilding it if the tree has changed
+     * @return the index
+     */
+    private LcaIndex<E> lcaIndex() {
+        if (lcaIndex == null || lcaIndex.modCount != modCount || lcaIndex.root != root) {
+            lcaIndex = buildLcaIndex();
         }
+        return lcaIndex;
+    }
+
+    /**
+     * Index the tree for O(1) lca queries
+     * Records the Euler tour (each node is listed on the way down and again after each child),
+     * the depth of every tour entry, and where each element first appears in the tour.
+     * The ancestor of two nodes is the shallowest entry between their first appearances,
+     * which a sparse table of range minimums finds with two lookups
+     * Complexity is O(n log n) time and space
+     * @return the new index
+     */
+    private LcaIndex<E> buildLcaIndex() {
+        LcaIndex<E> index = new LcaIndex<>(root, modCount);
+        List<BinaryNode<E>> path = new ArrayList<>();
+        walk(root, false, new Walker<E>() {
+            boolean enter(BinaryNode<E> node, int depth) {
+                setDepth(path, depth, node);
+                index.first.putIfAbsent(node.element, index.size);
+                index.add(node, depth);
+                return true;
+            }
+
+            void exit(BinaryNode<E> node, int depth) {
+                if (depth > 0) {
+                    index.add(path.get(depth - 1), depth - 1);
+                }
+            }
+        });
+        index.buildSparseTable();
+        return index;
     }
 
     /**
@@ -399,228 +886,1730 @@ public class Tree<E extends Comparable<? super E>> {
      * @return true if found.
      */
     public boolean contains(E item) {
-        return contains(item, root);
+        TreeMetrics.Probe started = begin();
+        try {
+            return contains(item, root);
+        } finally {
+            end("contains", started);
+        }
     }
 
     /**
      * Internal method to find an item in a subtree.
-     * This routine runs in O(log n) as there is only one recursive call that is executed and the work
-     * associated with a single call is independent of the size of the tree: a=1, b=2, k=0
+     * If the tree was built in order, this routine runs in O(h) as it follows one path down
+     * Otherwise it scans the subtree in O(n) and stops at the first match; large subtrees
+     * are scanned across the fork/join pool in parallel mode
      *
      * @param x is item to search for.
      * @param t the node that roots the subtree.
-     * @return node containing the matched item.
+     * @return true if found.
      */
     private boolean contains(E x, BinaryNode<E> t) {
-        if (t == null)
-            return false;
-
-        if(x == t.element){
-            return true;
-        } else if(contains(x, t.left) || contains(x, t.right)){
-            return true;
-        } else{
+        if (ordered) {
+            for (int depth = 0; t != null; depth++) {
+                visit(depth);
+                int compareResult = compare(x, t.element);
+                if (compareResult == 0)
+                    return true;
+                t = compareResult < 0 ? t.left : t.right;
+            }
             return false;
         }
+        if (splits(t)) {
+            return pool.invoke(new ContainsTask(x, t));
+        }
+
+        boolean[] found = {false};
+        walk(t, false, new Walker<E>() {
+            boolean enter(BinaryNode<E> node, int depth) {
+                if (compare(x, node.element) == 0) {
+                    found[0] = true;
+                    stop();
+                }
+                return true;
+            }
+        });
+        return found[0];
     }
 
     /**
      * Task 8
-     * Complexity is O(n) because we go through every node a couple of times
+     * Complexity is O(n): the existing nodes are rotated in place (Day-Stout-Warren),
+     * first into a sorted vine of right children, then back into a balanced tree
      * Balance the tree
-     * Collect all the nodes and make a new tree that is structured and balanced
+     * Extra space is O(1) for an ordered tree; an unordered tree also needs its elements
+     * copied out once to sort them along the vine
      */
     public void balanceTree() {
-        ArrayList<E> treeList = new ArrayList<>();
-        balanceTree(root, treeList);
-        Collections.sort(treeList);
-        ArrayList<E> balancedTree = new ArrayList<>();
-        balancedShuffle(treeList, balancedTree, 0, treeList.size());
-
-        String[] balanceTree = new String[balancedTree.size()];
-        for(int i = 0; i < balancedTree.size(); i++){
-            balanceTree[i] = balancedTree.get(i).toString();
+        TreeMetrics.Probe started = begin();
+        try {
+            modCount++;
+            if (root == null) {
+                return;
+            }
+            int n = size();
+            if (!ordered) {
+                sortElements(n);
+            }
+            root = rebuild(root, n);
+            ordered = true;
+        } finally {
+            end("balanceTree", started);
         }
-        root = buildUnordered((E[]) balanceTree, 0, balancedTree.size() - 1);
     }
 
     /**
-     * Recursively head through the whole tree and add all the nodes to an ArrayList
-     * @param node current working node
-     * @param treeList all the nodes in the tree
+     * Turn the tree into a vine and sort the elements along it, so that it becomes ordered
+     * Needed before an unordered tree can be rebalanced by rotations
+     * In parallel mode the elements are sorted in place instead, without making a vine
+     * @param n number of nodes in the tree
      */
-    private void balanceTree(BinaryNode<E> node, ArrayList<E> treeList){
-        if(node == null){
+    @SuppressWarnings("unchecked")
+    private void sortElements(int n) {
+        E[] elements = (E[]) new Comparable<?>[n];
+        if (splits(root)) {
+            // Each node's in order position is known from the stored sizes, so subtrees can be
+            // copied out and back in parallel, with the tree keeping its shape in between
+            pool.invoke(new CopyTask(root, elements, 0, false));
+            Arrays.parallelSort(elements);
+            pool.invoke(new CopyTask(root, elements, 0, true));
             return;
-        } else{
-            treeList.add(node.element);
-            balanceTree(node.right, treeList);
-            balanceTree(node.left, treeList);
+        }
+        BinaryNode<E> pseudoRoot = new BinaryNode<>(null);
+        pseudoRoot.right = root;
+        treeToVine(pseudoRoot);
+        root = pseudoRoot.right;
+
+        int i = 0;
+        for (BinaryNode<E> t = root; t != null; t = t.right) {
+            elements[i++] = t.element;
+        }
+        Arrays.sort(elements, counting() ? this::compare : null);
+        i = 0;
+        for (BinaryNode<E> t = root; t != null; t = t.right) {
+            t.element = elements[i++];
         }
     }
 
     /**
-     * Organize the items in the arraylist
-     * @param list original list of nodes
-     * @param balanced new organize list of nodes
-     * @param low lower bound
-     * @param high upper bound
+     * Rebalance an ordered subtree in place
+     * @param t the node that roots the subtree
+     * @param n number of nodes in the subtree
+     * @return the new root of the subtree
      */
-    private void balancedShuffle(ArrayList<E> list, ArrayList<E> balanced, int low, int high){
-        if(low == high){
-            return;
-        }
-        int mid = (low + high) / 2;
-        balanced.add(list.get(mid));
-        balancedShuffle(list, balanced, low, mid);
-        balancedShuffle(list, balanced, mid + 1, high);
+    private BinaryNode<E> rebuild(BinaryNode<E> t, int n) {
+        BinaryNode<E> pseudoRoot = new BinaryNode<>(null);
+        pseudoRoot.right = t;
+        treeToVine(pseudoRoot);
+        vineToTree(pseudoRoot, n);
+        refresh(pseudoRoot.right);
+        return pseudoRoot.right;
     }
 
     /**
-     * Task 9
-     * Complexity is O(n) because I run through every
-     * In a BST, keep only nodes between range a and b
-     * @param a lowest value
-     * @param b highest value
+     * Rotate every left child up until the tree is a vine of right children, in order
+     * @param pseudoRoot node whose right child roots the tree
      */
-    public void keepRange(E a, E b) {
-        if(root.element.compareTo(a) < 0){
-            root.left = null;
-            keepRange(a, b, root.right);
-            root = root.right;
-        } else if(root.element.compareTo(b) > 0){
-            root.right = null;
-            keepRange(a, b, root.left);
-            root = root.left;
-        } else{
-            keepRange(a, b, root);
+    private void treeToVine(BinaryNode<E> pseudoRoot) {
+        BinaryNode<E> tail = pseudoRoot;
+        BinaryNode<E> rest = tail.right;
+        for (int depth = 0; rest != null; ) {
+            visit(depth);
+            if (rest.left == null) {
+                depth++;
+                tail = rest;
+                rest = rest.right;
+            } else {
+                BinaryNode<E> temp = rest.left;
+                rest.left = temp.right;
+                temp.right = rest;
+                rest = temp;
+                tail.right = temp;
+            }
         }
     }
 
     /**
-     * Gets rid of the left or right children of nodes that are out of range
-     * @param a lower bound
-     * @param b upper bound
-     * @param node current working node
+     * Fold a vine of size nodes into a balanced tree
+     * The first pass only rotates the nodes that will not fit in a full bottom level,
+     * then each pass halves the vine
+     * @param pseudoRoot node whose right child starts the vine
+     * @param size       number of nodes in the vine
      */
-    private void keepRange(E a, E b, BinaryNode<E> node){
-        // if a.compareTo(b) returns neg, a < b
-        // if a.compareTo(b) returns 0, a == b
-        // if a.compareTo(b) returns pos, a > b
-        if(node == null){
-            return;
-        }
-        if(node.element.compareTo(a) < 0){
-            node.left = null;
-            keepRange(a, b, node.right);
-            node = null;
-        } else if(node.element.compareTo(b) > 0){
-            node.right = null;
-            keepRange(a, b, node.left);
-            node = null;
-        } else{
-            keepRange(a, b, node.left);
-            keepRange(a, b, node.right);
+    private void vineToTree(BinaryNode<E> pseudoRoot, int size) {
+        int full = Integer.highestOneBit(size + 1) - 1;    // nodes in the largest full tree that fits
+        compress(pseudoRoot, size - full);
+        for (size = full; size > 1; size /= 2) {
+            compress(pseudoRoot, size / 2);
         }
     }
 
     /**
-     * Task 10
-     * Complexity is O(n^2) because we check whether each node has a tree for children
-     * To check this, we traverse the whole tree again
-     * Counts all non-null binary search trees embedded in tree
-     * @return Count of embedded binary search trees
+     * Left rotate every other node along the vine, count times
+     * @param pseudoRoot node whose right child starts the vine
+     * @param count      number of rotations
      */
-    public Integer countBST() {
-        if (root == null){
-            return 0;
-        }
-        if(ifBST(root)){
-            return countBST(root);
+    private void compress(BinaryNode<E> pseudoRoot, int count) {
+        BinaryNode<E> scanner = pseudoRoot;
+        for (int i = 0; i < count; i++) {
+            visit(i + 1);
+            BinaryNode<E> child = scanner.right;
+            scanner.right = child.right;
+            scanner = scanner.right;
+            child.right = scanner.left;
+            scanner.left = child;
         }
-        return countBST(root) - 1;
     }
 
     /**
-     * If the node is null, there will be no attached tree
-     * If the left and the right of the node are both BSTs, then it must be a BST. Proceed to traverse the tree
-     * @param node current working node
-     * @return total number of BSTs found
+     * Rebalance automatically once a bstInsert goes deeper than factor * log2(size)
+     * Only the subtree that is out of balance is rebuilt, so height stays O(log n)
+     * and inserts stay O(log n) amortized
+     * Has no effect in balanced (AVL) mode, which never gets that deep
+     * @param factor how far from balanced the tree may get, greater than 1, e.g. 2.0; 0 turns it off
      */
-    private Integer countBST(BinaryNode<E> node){
-        if(node == null){
-            return 0;
+    public void setAutoRebalance(double factor) {
+        if (factor != 0 && factor <= 1) {
+            throw new IllegalArgumentException("rebalance factor must be greater than 1");
         }
-        if((ifBST(node.left) && ifBST(node.right))){
-            return 1 + countBST(node.left) + countBST(node.right);
-        } else{
-            return countBST(node.left) + countBST(node.right);
+        rebalanceFactor = factor;
+    }
+
+    /**
+     * Task 9
+     * Complexity is O(h): we go down to the first node in range, then down its left and
+     * right edges, cutting off whole out of range subtrees without visiting them
+     * In a BST, keep only nodes between range a and b
+     * @param a lowest value
+     * @param b highest value
+     */
+    @SuppressWarnings("unchecked")
+    public void keepRange(E a, E b) {
+        TreeMetrics.Probe started = begin();
+        try {
+            // if a.compareTo(b) returns neg, a < b
+            // if a.compareTo(b) returns 0, a == b
+            // if a.compareTo(b) returns pos, a > b
+            modCount++;
+            while (root != null && (compare(root.element, a) < 0 || compare(root.element, b) > 0)) {
+                root = compare(root.element, a) < 0 ? root.right : root.left;
+            }
+            if (root == null) {
+                return;
+            }
+
+            // Left edge: a left child below a, and its left subtree, are all out of range,
+            // but its right subtree may not be, so it takes the child's place
+            BinaryNode<E>[] leftEdge = (BinaryNode<E>[]) new BinaryNode<?>[root.height + 1];
+            int leftLength = 0;
+            BinaryNode<E> node = root;
+            while (node.left != null) {
+                visit(leftLength + 1);
+                if (compare(node.left.element, a) < 0) {
+                    node.left = node.left.right;
+                } else {
+                    node = node.left;
+                    leftEdge[leftLength++] = node;
+                }
+            }
+
+            // Right edge, the same way against b
+            BinaryNode<E>[] rightEdge = (BinaryNode<E>[]) new BinaryNode<?>[root.height + 1];
+            int rightLength = 0;
+            node = root;
+            while (node.right != null) {
+                visit(rightLength + 1);
+                if (compare(node.right.element, b) > 0) {
+                    node.right = node.right.left;
+                } else {
+                    node = node.right;
+                    rightEdge[rightLength++] = node;
+                }
+            }
+
+            // Only nodes on the two edges lost anything below them
+            for (int i = leftLength - 1; i >= 0; i--) {
+                update(leftEdge[i]);
+            }
+            for (int i = rightLength - 1; i >= 0; i--) {
+                update(rightEdge[i]);
+            }
+            update(root);
+        } finally {
+            end("keepRange", started);
         }
     }
 
     /**
-     * Returns whether a node's children create a binary search tree
-     * Leaf nodes are BST's, and any other correctly ordered tree stemming from a node is a BST
-     * @param node current working node
-     * @return true or false depending on whether we find a tree or not
+     * In order iterator over the elements between a and b, without changing the tree
+     * Complexity is O(h) to find the first element, then O(1) amortized per element
+     * @param a lowest value
+     * @param b highest value
+     * @return iterator over the elements in range, in order
+     * @throws IllegalStateException if the tree is not ordered
      */
-    private boolean ifBST(BinaryNode<E> node){
-        if(node == null){
-            return true;
+    public Iterator<E> rangeIterator(E a, E b) {
+        if (!ordered) {
+            throw new IllegalStateException(treeName + " is not ordered, so it has no ranges");
         }
-        if((node.left == null) && (node.right == null)){
-            return true;
-        } else if((node.left != null) && (node.right != null)){
-            if((!(node.left.element.compareTo(node.element) > 0)) && (!(node.right.element.compareTo(node.element) < 0))){
-                return (ifBST(node.left) && ifBST(node.right));
-            }
-        } else if((node.left != null)){
-            if((!(node.left.element.compareTo(node.element) > 0))){
-                return ifBST(node.left);
+        return new RangeIterator(a, b);
+    }
+
+    /**
+     * Read-only view of the elements between a and b; each iteration is a fresh range scan
+     * @param a lowest value
+     * @param b highest value
+     * @return the elements in range, in order
+     */
+    public Iterable<E> subTree(E a, E b) {
+        return () -> rangeIterator(a, b);
+    }
+
+    /**
+     * The element with k smaller elements before it in order, so select(0) is the smallest
+     * and select(size() / 2) the median
+     * Complexity is O(h): the stored subtree sizes say which side the element is on
+     * @param k position in order, from 0
+     * @return the element at that position
+     * @throws IndexOutOfBoundsException if k is not below size()
+     * @throws IllegalStateException if the tree is not ordered
+     */
+    public E select(int k) {
+        TreeMetrics.Probe started = begin();
+        try {
+            checkOrdered();
+            if (k < 0 || k >= size()) {
+                throw new IndexOutOfBoundsException("position " + k + " in a tree of " + size());
             }
-        } else{
-            if((!(node.right.element.compareTo(node.element) < 0))){
-                return ifBST(node.right);
+            BinaryNode<E> t = root;
+            for (int depth = 0; ; depth++) {
+                visit(depth);
+                int before = nodeSize(t.left);
+                if (k == before) {
+                    return t.element;
+                }
+                if (k < before) {
+                    t = t.left;
+                } else {
+                    k -= before + 1;
+                    t = t.right;
+                }
             }
+        } finally {
+            end("select", started);
         }
-        return false;
     }
 
     /**
-     * Insert into a bst tree; duplicates are allowed
-     * @param x the item to insert.
+     * Number of elements smaller than x, which is where x is or would go in order
+     * Complexity is O(h)
+     * @param x the item to rank; it need not be in the tree
+     * @return count of elements less than x
+     * @throws IllegalStateException if the tree is not ordered
      */
-    public void bstInsert(E x) {
-        root = bstInsert(x, root);
+    public int rank(E x) {
+        TreeMetrics.Probe started = begin();
+        try {
+            checkOrdered();
+            return countBelow(x, false);
+        } finally {
+            end("rank", started);
+        }
     }
 
     /**
-     * Internal method to insert into a subtree.
-     * In tree is balanced, this routine runs in O(log n)
-     * @param x the item to insert.
-     * @param t the node that roots the subtree.
-     * @return the new root of the subtree.
+     * Number of elements between a and b, including both
+     * Complexity is O(h), from two rank descents
+     * @param a lowest value
+     * @param b highest value
+     * @return count of elements in range, 0 if a is above b
+     * @throws IllegalStateException if the tree is not ordered
      */
-    private BinaryNode<E> bstInsert(E x, BinaryNode<E> t) {
-        if (t == null)
-            return new BinaryNode<E>(x, null, null);
-        int compareResult = x.compareTo(t.element);
-        if (compareResult < 0) {
-            t.left = bstInsert(x, t.left);
-        } else {
-            t.right = bstInsert(x, t.right);
+    public int countInRange(E a, E b) {
+        TreeMetrics.Probe started = begin();
+        try {
+            checkOrdered();
+            if (compare(a, b) > 0) {
+                return 0;
+            }
+            return countBelow(b, true) - countBelow(a, false);
+        } finally {
+            end("countInRange", started);
         }
-        return t;
     }
 
     /**
-     * Task - Bonus
-     * Build tree given inOrder and preOrder traversals.  Each value is unique
-     * @param inOrder  List of tree nodes in inorder
-     * @param preOrder List of tree nodes in preorder
+     * Count elements below x by following one path down, adding up the sizes of the
+     * subtrees and nodes passed on the left
+     * Duplicates of a node may sit on either side of it, so at an equal node the count goes
+     * left for elements < x, and right (after counting everything on the left) for elements <= x
+     * @param x         the item to compare with
+     * @param inclusive true to count elements equal to x as well
+     * @return count of elements less than x, or less than or equal to x
      */
-    public void buildTreeTraversals(E[] inOrder, E[] preOrder) {
-        root = null;
+    private int countBelow(E x, boolean inclusive) {
+        int count = 0;
+        BinaryNode<E> t = root;
+        for (int depth = 0; t != null; depth++) {
+            visit(depth);
+            int compareResult = compare(x, t.element);
+            if (compareResult < 0 || (compareResult == 0 && !inclusive)) {
+                t = t.left;
+            } else {
+                count += nodeSize(t.left) + 1;
+                t = t.right;
+            }
+        }
+        return count;
+    }
+
+    // @throws IllegalStateException if the tree is not ordered
+    private void checkOrdered() {
+        if (!ordered) {
+            throw new IllegalStateException(treeName + " is not ordered, so it has no ranks");
+        }
+    }
+
+    // Stack of nodes whose left side has been visited, seeded along the search path for a
+    private class RangeIterator implements Iterator<E> {
+        private final ArrayDeque<BinaryNode<E>> stack = new ArrayDeque<>();
+        private final E high;
+        private final E low;
+        private final int expectedModCount = modCount;
+
+        RangeIterator(E low, E high) {
+            this.low = low;
+            this.high = high;
+            descend(root);
+        }
+
+        public boolean hasNext() {
+            return !stack.isEmpty() && compare(stack.peek().element, high) <= 0;
+        }
+
+        public E next() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (!hasNext())
+                throw new NoSuchElementException();
+            BinaryNode<E> node = stack.pop();
+            descend(node.right);
+            return node.element;
+        }
+
+        // Push the nodes at or above low along the leftmost path of t's in range part
+        private void descend(BinaryNode<E> t) {
+            while (t != null) {
+                if (compare(t.element, low) < 0) {
+                    t = t.right;
+                } else {
+                    stack.push(t);
+                    t = t.left;
+                }
+            }
+        }
+    }
+
+    /**
+     * Task 10
+     * Complexity is O(n) because every subtree is summarized once, from its children's summaries
+     * Counts all non-null binary search trees embedded in tree, i.e. the nodes whose subtree is a BST
+     * @return Count of embedded binary search trees
+     */
+    public Integer countBST() {
+        TreeMetrics.Probe started = begin();
+        try {
+            return summarizeBST(root).count;
+        } finally {
+            end("countBST", started);
+        }
+    }
+
+    /**
+     * Size of the largest subtree that is a binary search tree
+     * Complexity is O(n), from the same pass as countBST()
+     * @return number of nodes in the largest embedded BST, 0 for an empty tree
+     */
+    public int largestBST() {
+        TreeMetrics.Probe started = begin();
+        try {
+            return summarizeBST(root).largest;
+        } finally {
+            end("largestBST", started);
+        }
+    }
+
+    /**
+     * Post-order pass that works out, for every subtree, whether it is a BST and its min, max and size
+     * A subtree is a BST if both child subtrees are, and the left max <= the node <= the right min
+     * (duplicates may sit on either side, as bstInsert and balanceTree can put them there)
+     * Each node's summary is written into a slot for its parent, indexed by the parent's depth
+     * and side, and read when the parent exits; slots are cleared as each parent is entered
+     * Large subtrees are split across the fork/join pool in parallel mode
+     * @param node the node that roots the subtree
+     * @return the summary of the subtree
+     */
+    @SuppressWarnings("unchecked")
+    private BstSummary<E> summarizeBST(BinaryNode<E> node) {
+        if (splits(node)) {
+            return pool.invoke(new SummarizeTask(node));
+        }
+        BstSummary<E> result = new BstSummary<>();
+        int slots = 2 * (nodeHeight(node) + 1);
+        boolean[] present = new boolean[slots];
+        boolean[] isBST = new boolean[slots];
+        E[] min = (E[]) new Comparable<?>[slots];
+        E[] max = (E[]) new Comparable<?>[slots];
+        List<BinaryNode<E>> path = new ArrayList<>();
+        walk(node, false, new Walker<E>() {
+            boolean enter(BinaryNode<E> n, int depth) {
+                setDepth(path, depth, n);
+                present[2 * depth] = false;
+                present[2 * depth + 1] = false;
+                return true;
+            }
+
+            void exit(BinaryNode<E> n, int depth) {
+                int left = 2 * depth;
+                int right = left + 1;
+                boolean bst = (!present[left] || (isBST[left] && compare(max[left], n.element) <= 0))
+                        && (!present[right] || (isBST[right] && compare(min[right], n.element) >= 0));
+                if (bst) {
+                    result.count++;
+                    result.largest = Math.max(result.largest, n.size);
+                }
+                if (depth == 0) {
+                    result.isBST = bst;
+                    result.min = present[left] ? min[left] : n.element;
+                    result.max = present[right] ? max[right] : n.element;
+                    return;
+                }
+                int slot = 2 * (depth - 1) + (path.get(depth - 1).left == n ? 0 : 1);
+                present[slot] = true;
+                isBST[slot] = bst;
+                if (bst) {
+                    min[slot] = present[left] ? min[left] : n.element;
+                    max[slot] = present[right] ? max[right] : n.element;
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Insert into a bst tree; duplicates are allowed
+     * @param x the item to insert.
+     */
+    public void bstInsert(E x) {
+        TreeMetrics.Probe started = begin();
+        try {
+            modCount++;
+            root = bstInsert(x, root);
+        } finally {
+            end("bstInsert", started);
+        }
+    }
+
+    /**
+     * Internal method to insert into a subtree.
+     * In tree is balanced, this routine runs in O(log n)
+     * Descends without recursion, keeping the nodes passed so their stored heights and
+     * sizes can be updated (and in balanced mode, rebalanced) on the way back up
+     * @param x the item to insert.
+     * @param t the node that roots the subtree.
+     * @return the new root of the subtree.
+     */
+    @SuppressWarnings("unchecked")
+    private BinaryNode<E> bstInsert(E x, BinaryNode<E> t) {
+        BinaryNode<E> node = newNode(x);
+        if (t == null)
+            return node;
+
+        BinaryNode<E>[] path = (BinaryNode<E>[]) new BinaryNode<?>[t.height + 1];
+        int length = 0;
+        BinaryNode<E> parent = t;
+        while (true) {
+            visit(length);
+            path[length++] = parent;
+            if (compare(x, parent.element) < 0) {
+                if (parent.left == null) {
+                    parent.left = node;
+                    break;
+                }
+                parent = parent.left;
+            } else {
+                if (parent.right == null) {
+                    parent.right = node;
+                    break;
+                }
+                parent = parent.right;
+            }
+        }
+        if (!balanced) {
+            for (int i = length - 1; i >= 0; i--) {
+                update(path[i]);
+            }
+            if (rebalanceFactor > 0 && length > rebalanceFactor * Math.log(t.size) / Math.log(2)) {
+                return rebuildScapegoat(t, path, length, node);
+            }
+            return t;
+        }
+
+        BinaryNode<E> subtree = null;
+        for (int i = length - 1; i >= 0; i--) {
+            BinaryNode<E> old = path[i];
+            subtree = balance(old);
+            if (i > 0) {
+                BinaryNode<E> above = path[i - 1];
+                if (above.left == old) {
+                    above.left = subtree;
+                } else {
+                    above.right = subtree;
+                }
+            }
+        }
+        return subtree;
+    }
+
+    /**
+     * The new node went deeper than rebalanceFactor * log2(size), so rebuild the lowest
+     * ancestor whose child on the path holds more than alpha of its nodes, where
+     * alpha = 2^(-1 / rebalanceFactor); such an ancestor must exist (scapegoat tree)
+     * Rebuilding only that subtree keeps inserts O(log n) amortized, even for sorted input
+     * @param t      the node that roots the subtree inserted into
+     * @param path   nodes from t down to the new node's parent
+     * @param length number of nodes on path
+     * @param node   the new node
+     * @return the new root of the subtree
+     */
+    private BinaryNode<E> rebuildScapegoat(BinaryNode<E> t, BinaryNode<E>[] path, int length, BinaryNode<E> node) {
+        double alpha = Math.pow(0.5, 1 / rebalanceFactor);
+        BinaryNode<E> child = node;
+        for (int i = length - 1; i >= 0; i--) {
+            BinaryNode<E> scapegoat = path[i];
+            if (child.size > alpha * scapegoat.size) {
+                BinaryNode<E> rebuilt = rebuild(scapegoat, scapegoat.size);
+                if (i == 0) {
+                    return rebuilt;
+                }
+                if (path[i - 1].left == scapegoat) {
+                    path[i - 1].left = rebuilt;
+                } else {
+                    path[i - 1].right = rebuilt;
+                }
+                for (int j = i - 1; j >= 0; j--) {
+                    update(path[j]);
+                }
+                return t;
+            }
+            child = scapegoat;
+        }
+        return t;
+    }
+
+    /**
+     * Add every element of other to this tree; duplicates are kept, as with bstInsert
+     * Complexity is O(n + m): both trees are walked in order, the two sorted lists are merged,
+     * and the result is linked up as a perfectly balanced tree. This tree's nodes are reused,
+     * so only other's m elements need new nodes; other is not changed
+     * An unordered tree has to have its elements sorted first, which adds O(n log n)
+     * @param other the tree to take elements from; may be this tree
+     */
+    public void merge(Tree<E> other) {
+        TreeMetrics.Probe started = begin();
+        try {
+            BinaryNode<E>[] theirs = inorderNodes(other.root, other.ordered);
+            E[] elements = elementsOf(theirs);
+            modCount++;
+            mergeSorted(elements);
+        } finally {
+            end("merge", started);
+        }
+    }
+
+    /**
+     * Insert a sorted batch in one coordinated descent: the batch is split at each node by binary
+     * search, each part goes down its own side, and a part that reaches an empty child becomes a
+     * balanced subtree there. Each node is passed once for the whole batch rather than once per key,
+     * so the cost is O(k log n) at worst and O(n + k) when the batch touches every part of the tree
+     * In balanced (AVL) mode the tree is merged with the batch and relinked instead, in O(n + k)
+     * @param sortedBatch the items to insert, in order; duplicates are allowed
+     * @throws IllegalArgumentException if the batch is not sorted; the tree is left unchanged
+     */
+    public void bstInsertAll(E[] sortedBatch) {
+        TreeMetrics.Probe started = begin();
+        try {
+            for (int i = 1; i < sortedBatch.length; i++) {
+                if (compare(sortedBatch[i - 1], sortedBatch[i]) > 0) {
+                    throw new IllegalArgumentException("batch is not sorted at position " + i);
+                }
+            }
+            if (sortedBatch.length == 0) {
+                return;
+            }
+            modCount++;
+            if (root == null) {
+                root = buildBalanced(sortedBatch, 0, sortedBatch.length - 1);
+            } else if (balanced) {
+                mergeSorted(sortedBatch);
+            } else {
+                insertAll(sortedBatch);
+                if (rebalanceFactor > 0 && height() > rebalanceFactor * Math.log(size()) / Math.log(2)) {
+                    root = rebuild(root, size());
+                }
+            }
+        } finally {
+            end("bstInsertAll", started);
+        }
+    }
+
+    /**
+     * Read-only copy of the tree laid out in one array for fast searching; see FrozenTree
+     * Later changes to this tree do not affect the copy
+     * Complexity is O(n), or O(n log n) for an unordered tree, whose elements have to be sorted
+     * @return the frozen copy
+     */
+    public FrozenTree<E> freeze() {
+        TreeMetrics.Probe started = begin();
+        try {
+            return new FrozenTree<>(elementsOf(inorderNodes(root, ordered)));
+        } finally {
+            end("freeze", started);
+        }
+    }
+
+    /**
+     * The coordinated descent for bstInsertAll, with an explicit stack of nodes and the part of
+     * the batch each one still has to place; sizes and heights are updated as nodes are popped
+     * @param batch the items to insert, in order
+     */
+    @SuppressWarnings("unchecked")
+    private void insertAll(E[] batch) {
+        BinaryNode<E>[] nodes = (BinaryNode<E>[]) new BinaryNode<?>[root.height + 1];
+        int[] low = new int[nodes.length];      // first batch position for the node
+        int[] split = new int[nodes.length];    // first batch position not less than the node
+        int[] high = new int[nodes.length];     // one past the last batch position for the node
+        byte[] stage = new byte[nodes.length];
+        int depth = 0;
+        nodes[0] = root;
+        low[0] = 0;
+        high[0] = batch.length;
+        stage[0] = 0;
+        while (depth >= 0) {
+            BinaryNode<E> node = nodes[depth];
+            BinaryNode<E> child = null;
+            int from = 0;
+            int to = 0;
+            switch (stage[depth]++) {
+                case 0:
+                    visit(depth);
+                    // Equal items go right, as in bstInsert
+                    split[depth] = lowerBound(batch, low[depth], high[depth], node.element);
+                    from = low[depth];
+                    to = split[depth];
+                    if (from < to) {
+                        if (node.left == null) {
+                            node.left = buildBalanced(batch, from, to - 1);
+                        } else {
+                            child = node.left;
+                        }
+                    }
+                    break;
+                case 1:
+                    from = split[depth];
+                    to = high[depth];
+                    if (from < to) {
+                        if (node.right == null) {
+                            node.right = buildBalanced(batch, from, to - 1);
+                        } else {
+                            child = node.right;
+                        }
+                    }
+                    break;
+                default:
+                    update(node);
+                    depth--;
+            }
+            if (child != null) {
+                depth++;
+                nodes[depth] = child;
+                low[depth] = from;
+                high[depth] = to;
+                stage[depth] = 0;
+            }
+        }
+    }
+
+    /**
+     * Binary search a sorted range
+     * @return the first position in [low, high) whose item is not less than x, or high if none
+     */
+    private int lowerBound(E[] sorted, int low, int high, E x) {
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(sorted[mid], x) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Merge sorted items into the tree and relink everything as a perfectly balanced tree
+     * Existing nodes are reused; each item gets a new node. On ties the existing node comes first
+     * @param theirs the items to add, in order
+     */
+    @SuppressWarnings("unchecked")
+    private void mergeSorted(E[] theirs) {
+        BinaryNode<E>[] mine = inorderNodes(root, ordered);
+        BinaryNode<E>[] merged = (BinaryNode<E>[]) new BinaryNode<?>[mine.length + theirs.length];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < merged.length; k++) {
+            if (j == theirs.length || (i < mine.length && compare(mine[i].element, theirs[j]) <= 0)) {
+                merged[k] = mine[i++];
+            } else {
+                merged[k] = newNode(theirs[j++]);
+            }
+        }
+        root = link(merged, 0, merged.length - 1);
+        ordered = true;
+    }
+
+    /**
+     * The nodes of a subtree in order of their elements
+     * @param t       the node that roots the subtree
+     * @param ordered true if the subtree is a BST, so in order is already sorted
+     * @return the nodes, sorted by element
+     */
+    @SuppressWarnings("unchecked")
+    private BinaryNode<E>[] inorderNodes(BinaryNode<E> t, boolean ordered) {
+        BinaryNode<E>[] nodes = (BinaryNode<E>[]) new BinaryNode<?>[nodeSize(t)];
+        int[] next = {0};
+        walk(t, false, new Walker<E>() {
+            void between(BinaryNode<E> node, int depth) {
+                nodes[next[0]++] = node;
+            }
+        });
+        if (!ordered) {
+            Arrays.sort(nodes, (p, q) -> compare(p.element, q.element));
+        }
+        return nodes;
+    }
+
+    // @return the elements of nodes, in the same order
+    @SuppressWarnings("unchecked")
+    private E[] elementsOf(BinaryNode<E>[] nodes) {
+        E[] elements = (E[]) new Comparable<?>[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            elements[i] = nodes[i].element;
+        }
+        return elements;
+    }
+
+    /**
+     * Link sorted nodes into a balanced BST, middle node at the root, as buildBalanced does with elements
+     * @param nodes the nodes, in order
+     * @param low   first index to use
+     * @param high  last index to use
+     * @return root of new subtree
+     */
+    private BinaryNode<E> link(BinaryNode<E>[] nodes, int low, int high) {
+        if (low > high) return null;
+        int mid = (low + high) / 2;
+        BinaryNode<E> curr = nodes[mid];
+        curr.left = link(nodes, low, mid - 1);
+        curr.right = link(nodes, mid + 1, high);
+        update(curr);
+        return curr;
+    }
+
+    /**
+     * Height of a node as stored in it
+     * @param t the node
+     * @return stored height, or -1 for null
+     */
+    private int nodeHeight(BinaryNode<E> t) {
+        return t == null ? -1 : t.height;
+    }
+
+    /**
+     * Number of nodes in a subtree as stored in its root
+     * @param t the node
+     * @return stored size, or 0 for null
+     */
+    private int nodeSize(BinaryNode<E> t) {
+        return t == null ? 0 : t.size;
+    }
+
+    /**
+     * Assume t is either balanced or within one of being balanced
+     * Restores the AVL property with a single or double rotation
+     * @param t the node that roots the subtree
+     * @return the new root of the subtree
+     */
+    private BinaryNode<E> balance(BinaryNode<E> t) {
+        if (t == null)
+            return t;
+
+        if (nodeHeight(t.left) - nodeHeight(t.right) > ALLOWED_IMBALANCE) {
+            if (nodeHeight(t.left.left) >= nodeHeight(t.left.right))
+                t = rotateWithLeftChild(t);
+            else
+                t = doubleWithLeftChild(t);
+        } else if (nodeHeight(t.right) - nodeHeight(t.left) > ALLOWED_IMBALANCE) {
+            if (nodeHeight(t.right.right) >= nodeHeight(t.right.left))
+                t = rotateWithRightChild(t);
+            else
+                t = doubleWithRightChild(t);
+        }
+
+        update(t);
+        return t;
+    }
+
+    /**
+     * Rotate binary tree node with left child (single rotation, case 1)
+     * @param k2 the node to rotate
+     * @return the new root of the subtree
+     */
+    private BinaryNode<E> rotateWithLeftChild(BinaryNode<E> k2) {
+        BinaryNode<E> k1 = k2.left;
+        k2.left = k1.right;
+        k1.right = k2;
+        update(k2);
+        update(k1);
+        return k1;
+    }
+
+    /**
+     * Rotate binary tree node with right child (single rotation, case 4)
+     * @param k1 the node to rotate
+     * @return the new root of the subtree
+     */
+    private BinaryNode<E> rotateWithRightChild(BinaryNode<E> k1) {
+        BinaryNode<E> k2 = k1.right;
+        k1.right = k2.left;
+        k2.left = k1;
+        update(k1);
+        update(k2);
+        return k2;
+    }
+
+    /**
+     * Double rotate binary tree node: first left child with its right child,
+     * then node k3 with new left child (case 2)
+     * @param k3 the node to rotate
+     * @return the new root of the subtree
+     */
+    private BinaryNode<E> doubleWithLeftChild(BinaryNode<E> k3) {
+        k3.left = rotateWithRightChild(k3.left);
+        return rotateWithLeftChild(k3);
+    }
+
+    /**
+     * Double rotate binary tree node: first right child with its left child,
+     * then node k1 with new right child (case 3)
+     * @param k1 the node to rotate
+     * @return the new root of the subtree
+     */
+    private BinaryNode<E> doubleWithRightChild(BinaryNode<E> k1) {
+        k1.right = rotateWithLeftChild(k1.right);
+        return rotateWithRightChild(k1);
+    }
+
+    /**
+     * Recompute stored height and size of a node from its children's
+     * @param t the node
+     */
+    private void update(BinaryNode<E> t) {
+        t.height = Math.max(nodeHeight(t.left), nodeHeight(t.right)) + 1;
+        t.size = nodeSize(t.left) + nodeSize(t.right) + 1;
+    }
+
+    /**
+     * Recompute stored heights and sizes after an operation that restructured the tree
+     * Complexity is O(n) for the subtree
+     * @param t the node that roots the subtree
+     */
+    private void refresh(BinaryNode<E> t) {
+        walk(t, false, new Walker<E>() {
+            void exit(BinaryNode<E> node, int depth) {
+                update(node);
+            }
+        });
+    }
+
+    // Traversal orders buildTreeTraversals can pair with an inorder list
+    public enum Traversal {
+        PREORDER, POSTORDER, LEVEL_ORDER
+    }
+
+    /**
+     * Task - Bonus
+     * Build tree given inOrder and preOrder traversals.  Each value is unique
+     * @param inOrder  List of tree nodes in inorder
+     * @param preOrder List of tree nodes in preorder
+     * @throws IllegalArgumentException if the lists do not describe one tree
+     */
+    public void buildTreeTraversals(E[] inOrder, E[] preOrder) {
+        buildTreeTraversals(inOrder, preOrder, Traversal.PREORDER);
+    }
+
+    /**
+     * Build tree given its inorder traversal and one other traversal.  Each value is unique
+     * Complexity is O(n): inorder positions are looked up in a hash table, and the tree is
+     * built with an explicit stack (or queue, for level order) rather than by recursion
+     * The tree is ordered if inOrder is sorted
+     * @param inOrder List of tree nodes in inorder
+     * @param other   List of tree nodes in the given order
+     * @param kind    which order other is in
+     * @throws IllegalArgumentException if the lists do not describe one tree; the tree is left unchanged
+     */
+    public void buildTreeTraversals(E[] inOrder, E[] other, Traversal kind) {
+        TreeMetrics.Probe started = begin();
+        try {
+            if (inOrder.length != other.length) {
+                throw new IllegalArgumentException("traversals have " + inOrder.length + " and "
+                        + other.length + " nodes");
+            }
+            InorderIndex<E> index = new InorderIndex<>(inOrder);
+            BinaryNode<E> built;
+            if (kind == Traversal.LEVEL_ORDER) {
+                built = buildFromLevelOrder(index, other);
+            } else {
+                built = buildFromStack(index, other, kind == Traversal.POSTORDER);
+                checkInorder(built, index);
+            }
+            modCount++;
+            root = built;
+            ordered = true;
+            for (int i = 1; i < inOrder.length && ordered; i++) {
+                ordered = compare(inOrder[i - 1], inOrder[i]) <= 0;
+            }
+        } finally {
+            end("buildTreeTraversals", started);
+        }
+    }
+
+    /**
+     * Build from preorder, or from postorder read backwards, which is preorder with right and left swapped
+     * Each node becomes the near child of the previous one, unless it comes later in inorder than
+     * nodes on the stack; then it is the far child of the last of those popped
+     * @param index    inorder positions
+     * @param order    List of tree nodes in preorder or postorder
+     * @param backward true for postorder
+     * @return root of the new tree, sizes and heights not yet set
+     */
+    @SuppressWarnings("unchecked")
+    private BinaryNode<E> buildFromStack(InorderIndex<E> index, E[] order, boolean backward) {
+        int n = order.length;
+        if (n == 0) {
+            return null;
+        }
+        BinaryNode<E>[] stack = (BinaryNode<E>[]) new BinaryNode<?>[32];
+        int[] positions = new int[32];    // inorder position of each stacked node
+        int depth = 0;
+        BinaryNode<E> top = null;
+        for (int k = 0; k < n; k++) {
+            E x = order[backward ? n - 1 - k : k];
+            int position = index.get(x);
+            BinaryNode<E> node = newNode(x);
+            visit(depth);
+            if (top == null) {
+                top = node;
+            } else {
+                BinaryNode<E> parent = null;
+                while (depth > 0 && (backward ? positions[depth - 1] > position : positions[depth - 1] < position)) {
+                    parent = stack[--depth];
+                }
+                if (parent != null) {
+                    if (backward) parent.left = node;
+                    else parent.right = node;
+                } else {
+                    if (backward) stack[depth - 1].right = node;
+                    else stack[depth - 1].left = node;
+                }
+            }
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, depth * 2);
+                positions = Arrays.copyOf(positions, depth * 2);
+            }
+            stack[depth] = node;
+            positions[depth] = position;
+            depth++;
+        }
+        return top;
+    }
+
+    /**
+     * Build from level order, keeping a queue of the child slots still to be filled, each with the
+     * range of inorder positions its subtree covers; in level order the subtrees' roots arrive
+     * in the same order the slots were made
+     * @param index inorder positions
+     * @param level List of tree nodes in level order
+     * @return root of the new tree
+     * @throws IllegalArgumentException if a node falls outside the next slot's range
+     */
+    private BinaryNode<E> buildFromLevelOrder(InorderIndex<E> index, E[] level) {
+        int n = level.length;
+        if (n == 0) {
+            return null;
+        }
+        ArrayDeque<BinaryNode<E>> parents = new ArrayDeque<>();
+        ArrayDeque<int[]> slots = new ArrayDeque<>();   // {low, high, 0 for left or 1 for right}
+        BinaryNode<E> top = null;
+        List<BinaryNode<E>> built = new ArrayList<>(n);
+        for (int k = 0; k < n; k++) {
+            int position = index.get(level[k]);
+            BinaryNode<E> node = newNode(level[k]);
+            int low = 0;
+            int high = n - 1;
+            if (k == 0) {
+                top = node;
+            } else {
+                if (slots.isEmpty()) {
+                    throw new IllegalArgumentException(level[k] + " has no place left in the tree");
+                }
+                BinaryNode<E> parent = parents.poll();
+                int[] slot = slots.poll();
+                low = slot[0];
+                high = slot[1];
+                if (position < low || position > high) {
+                    throw new IllegalArgumentException(level[k] + " is not in the subtree of " + parent.element);
+                }
+                if (slot[2] == 0) parent.left = node;
+                else parent.right = node;
+            }
+            if (low < position) {
+                parents.add(node);
+                slots.add(new int[]{low, position - 1, 0});
+            }
+            if (position < high) {
+                parents.add(node);
+                slots.add(new int[]{position + 1, high, 1});
+            }
+            built.add(node);
+        }
+        if (!slots.isEmpty()) {
+            throw new IllegalArgumentException("level order list is missing nodes");
+        }
+        // Children come after their parents in level order, so going backwards sets every child first
+        for (int k = n - 1; k >= 0; k--) {
+            update(built.get(k));
+        }
+        return top;
+    }
+
+    /**
+     * Check that the new tree lists its nodes in the same inorder as given, and set sizes and heights
+     * @param t     root of the new tree
+     * @param index inorder positions
+     * @throws IllegalArgumentException if it does not, as the lists did not describe one tree
+     */
+    private void checkInorder(BinaryNode<E> t, InorderIndex<E> index) {
+        int[] next = {0};
+        walk(t, false, new Walker<E>() {
+            void between(BinaryNode<E> node, int depth) {
+                if (index.get(node.element) != next[0]++) {
+                    throw new IllegalArgumentException("traversals do not describe the same tree at "
+                            + node.element);
+                }
+            }
+
+            void exit(BinaryNode<E> node, int depth) {
+                update(node);
+            }
+        });
+    }
+
+    // ******************METRICS********************************
+    // Public operations count what they do into a probe, which is added to the attached
+    // TreeMetrics when the outermost operation returns. Every check starts with
+    // TreeMetrics.ENABLED, a constant, so without -Dtree.metrics=true the JIT removes them all
+
+    /**
+     * Count the operations on this tree into metrics
+     * Counts are approximate for passes split across the pool in parallel mode
+     * @param metrics where to count, or null to stop counting
+     * @throws IllegalStateException if the JVM was not started with -Dtree.metrics=true
+     */
+    public void setMetrics(TreeMetrics metrics) {
+        if (metrics != null && !TreeMetrics.ENABLED) {
+            throw new IllegalStateException("metrics are compiled out; run with -Dtree.metrics=true");
+        }
+        this.metrics = metrics;
+        probe = null;
+    }
+
+    /**
+     * Start counting a public operation, unless one is already being counted
+     * @return the new probe, or null if this call is not the outermost one or nothing is counted
+     */
+    private TreeMetrics.Probe begin() {
+        if (!TreeMetrics.ENABLED || metrics == null || probe != null) {
+            return null;
+        }
+        probe = new TreeMetrics.Probe(size());
+        return probe;
+    }
+
+    /**
+     * Finish counting a public operation
+     * @param operation name the counts are kept under
+     * @param started   what begin() returned
+     */
+    private void end(String operation, TreeMetrics.Probe started) {
+        if (TreeMetrics.ENABLED && started != null) {
+            probe = null;
+            metrics.record(operation, started, size());
+        }
+    }
+
+    // @return true while an operation is being counted
+    private boolean counting() {
+        return TreeMetrics.ENABLED && probe != null;
+    }
+
+    // Every comparison between elements goes through here so it can be counted
+    private int compare(E a, E b) {
+        if (counting()) probe.comparisons++;
+        return a.compareTo(b);
+    }
+
+    // Count a node reached at the given depth
+    private void visit(int depth) {
+        if (counting()) probe.visit(depth);
+    }
+
+    // Every node added to the tree is made here so it can be counted
+    private BinaryNode<E> newNode(E x) {
+        if (counting()) probe.allocated++;
+        return new BinaryNode<>(x, null, null);
+    }
+
+    // ******************PARALLEL********************************
+    // Whole-tree passes split at a node's children while its subtree is larger than
+    // parallelThreshold, and run the sequential version below that
+
+    /**
+     * Run flip, countBST, the scan in contains, pruneK and balanceTree's element sort on a fork/join pool
+     * @param pool      the pool to use, or null to go back to running sequentially
+     * @param threshold subtrees with at most this many nodes are not split, e.g. 10000
+     */
+    public void setParallel(ForkJoinPool pool, int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("threshold must be at least 1");
+        }
+        this.pool = pool;
+        this.parallelThreshold = threshold;
+    }
+
+    /**
+     * @param t the node that roots a subtree
+     * @return true if a pass over the subtree should be split across the pool
+     */
+    private boolean splits(BinaryNode<E> t) {
+        return pool != null && t != null && t.size > parallelThreshold;
+    }
+
+    private class FlipTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BinaryNode<E> node;
+
+        FlipTask(BinaryNode<E> node) {
+            this.node = node;
+        }
+
+        protected void compute() {
+            if (!splits(node)) {
+                flip(node);
+                return;
+            }
+            BinaryNode<E> hold = node.right;
+            node.right = node.left;
+            node.left = hold;
+            invokeAll(new FlipTask(node.left), new FlipTask(node.right));
+        }
+    }
+
+    private class ContainsTask extends RecursiveTask<Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private final E x;
+        private final BinaryNode<E> node;
+
+        ContainsTask(E x, BinaryNode<E> node) {
+            this.x = x;
+            this.node = node;
+        }
+
+        protected Boolean compute() {
+            if (node == null) {
+                return false;
+            }
+            if (!splits(node)) {
+                return contains(x, node);
+            }
+            if (compare(x, node.element) == 0) {
+                return true;
+            }
+            ContainsTask left = new ContainsTask(x, node.left);
+            left.fork();
+            return new ContainsTask(x, node.right).compute() || left.join();
+        }
+    }
+
+    private class SummarizeTask extends RecursiveTask<BstSummary<E>> {
+        private static final long serialVersionUID = 1L;
+
+        private final BinaryNode<E> node;
+
+        SummarizeTask(BinaryNode<E> node) {
+            this.node = node;
+        }
+
+        protected BstSummary<E> compute() {
+            if (!splits(node)) {
+                return summarizeBST(node);
+            }
+            SummarizeTask leftTask = new SummarizeTask(node.left);
+            leftTask.fork();
+            BstSummary<E> right = new SummarizeTask(node.right).compute();
+            BstSummary<E> left = leftTask.join();
+
+            BstSummary<E> result = new BstSummary<>();
+            result.isBST = (node.left == null || (left.isBST && compare(left.max, node.element) <= 0))
+                    && (node.right == null || (right.isBST && compare(right.min, node.element) >= 0));
+            result.count = left.count + right.count + (result.isBST ? 1 : 0);
+            result.largest = result.isBST ? node.size : Math.max(left.largest, right.largest);
+            result.min = node.left == null ? node.element : left.min;
+            result.max = node.right == null ? node.element : right.max;
+            return result;
+        }
+    }
+
+    private class PruneTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final ToLongFunction<? super E> weight;
+        private final long threshold;
+        private final BinaryNode<E> node;
+        private final long above;
+
+        PruneTask(ToLongFunction<? super E> weight, long threshold, BinaryNode<E> node, long above) {
+            this.weight = weight;
+            this.threshold = threshold;
+            this.node = node;
+            this.above = above;
+        }
+
+        protected Integer compute() {
+            if (node == null) {
+                return 0;
+            }
+            if (!splits(node)) {
+                return prunePass(weight, threshold, node, above);
+            }
+            long currentSum = above + weight.applyAsLong(node.element);
+            if (currentSum >= threshold) {
+                return 0;
+            }
+            int leftSize = nodeSize(node.left);
+            int rightSize = nodeSize(node.right);
+            PruneTask leftTask = new PruneTask(weight, threshold, node.left, currentSum);
+            leftTask.fork();
+            int rightRemoved = new PruneTask(weight, threshold, node.right, currentSum).compute();
+            int leftRemoved = leftTask.join();
+
+            // A child is gone exactly when its whole subtree is
+            if (leftRemoved == leftSize) node.left = null;
+            if (rightRemoved == rightSize) node.right = null;
+            if (node.left == null && node.right == null) {
+                return leftRemoved + rightRemoved + 1;
+            }
+            update(node);
+            return leftRemoved + rightRemoved;
+        }
+    }
+
+    // Copies elements out of (or back into) a subtree by in order position, using stored sizes
+    private class CopyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BinaryNode<E> node;
+        private final E[] elements;
+        private final int offset;
+        private final boolean back;
+
+        CopyTask(BinaryNode<E> node, E[] elements, int offset, boolean back) {
+            this.node = node;
+            this.elements = elements;
+            this.offset = offset;
+            this.back = back;
+        }
+
+        protected void compute() {
+            if (node == null) {
+                return;
+            }
+            if (!splits(node)) {
+                int[] next = {offset};
+                walk(node, false, new Walker<E>() {
+                    void between(BinaryNode<E> n, int depth) {
+                        copy(n, next[0]++);
+                    }
+                });
+                return;
+            }
+            int position = offset + nodeSize(node.left);
+            copy(node, position);
+            invokeAll(new CopyTask(node.left, elements, offset, back),
+                    new CopyTask(node.right, elements, position + 1, back));
+        }
+
+        private void copy(BinaryNode<E> n, int position) {
+            if (back) {
+                n.element = elements[position];
+            } else {
+                elements[position] = n.element;
+            }
+        }
+    }
+
+    // Position of each element in an inorder list; Integer lists use a primitive open addressing table
+    private static class InorderIndex<E> {
+        private HashMap<E, Integer> positions;
+        private int[] keys;
+        private int[] values;     // position + 1, or 0 for an empty slot
+        private int mask;
+
+        InorderIndex(E[] inOrder) {
+            if (inOrder instanceof Integer[]) {
+                int capacity = Integer.highestOneBit(Math.max(2 * inOrder.length, 2) - 1) << 1;
+                keys = new int[capacity];
+                values = new int[capacity];
+                mask = capacity - 1;
+                for (int i = 0; i < inOrder.length; i++) {
+                    int key = (Integer) inOrder[i];
+                    int slot = find(key);
+                    if (values[slot] != 0) {
+                        throw new IllegalArgumentException(key + " appears twice in the inorder list");
+                    }
+                    keys[slot] = key;
+                    values[slot] = i + 1;
+                }
+            } else {
+                positions = new HashMap<>(2 * inOrder.length);
+                for (int i = 0; i < inOrder.length; i++) {
+                    if (positions.put(inOrder[i], i) != null) {
+                        throw new IllegalArgumentException(inOrder[i] + " appears twice in the inorder list");
+                    }
+                }
+            }
+        }
+
+        /**
+         * @param x an element
+         * @return its inorder position
+         * @throws IllegalArgumentException if it is not in the inorder list
+         */
+        int get(E x) {
+            int position;
+            if (positions != null) {
+                Integer found = positions.get(x);
+                position = found == null ? -1 : found;
+            } else {
+                position = values[find((Integer) x)] - 1;
+            }
+            if (position < 0) {
+                throw new IllegalArgumentException(x + " is not in the inorder list");
+            }
+            return position;
+        }
+
+        // @return the slot holding key, or the empty slot where it would go
+        private int find(int key) {
+            int hash = key * 0x9E3779B9;
+            int slot = (hash ^ hash >>> 16) & mask;
+            while (values[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+
+    // What summarizeBST() found for a subtree
+    private static class BstSummary<E> {
+        int count;        // Subtrees that are BSTs
+        int largest;      // Size of the largest of them
+        boolean isBST;    // Whether the whole subtree is a BST
+        E min;            // Smallest element
+        E max;            // Largest element
+    }
+
+    // ******************TRAVERSAL********************************
+    // Every whole-tree operation goes through walk() or levelOrder(), which keep their own
+    // stack/queue on the heap, so tree depth is not limited by the thread's call stack
+
+    /**
+     * Callbacks for walk(); override only the ones needed
+     * depth is the distance from the node the walk started at
+     */
+    private abstract static class Walker<E> {
+        private boolean stopped;
+
+        /**
+         * Called before either subtree (preorder)
+         * @return false to skip this node's subtrees, and its between/exit calls
+         */
+        boolean enter(BinaryNode<E> node, int depth) {
+            return true;
+        }
+
+        // Called after the first subtree and before the second (inorder)
+        void between(BinaryNode<E> node, int depth) {
+        }
+
+        // Called after both subtrees (postorder)
+        void exit(BinaryNode<E> node, int depth) {
+        }
+
+        // End the walk once the current callback returns
+        void stop() {
+            stopped = true;
+        }
+    }
+
+    // Callback for levelOrder()
+    private interface LevelVisitor<E> {
+        void visit(BinaryNode<E> node, int depth);
+    }
+
+    /**
+     * Depth first traversal using an explicit stack
+     * Complexity is O(n) time and O(h) extra space
+     * Child links are read only when the walk moves into that child, so callbacks
+     * may change the links of the node they are given
+     * @param start   the node that roots the subtree to walk
+     * @param reverse false to go left then right, true to go right then left
+     * @param walker  the callbacks to make
+     */
+    private void walk(BinaryNode<E> start, boolean reverse, Walker<E> walker) {
+        if (start == null)
+            return;
+        NodeStack<E> stack = new NodeStack<>();
+        stack.push(start, 0);
+        while (!stack.isEmpty() && !walker.stopped) {
+            BinaryNode<E> node = stack.peekNode();
+            int depth = stack.peekDepth();
+            switch (stack.peekStage()) {
+                case 0:
+                    stack.advance();
+                    visit(depth);
+                    if (!walker.enter(node, depth)) {
+                        stack.pop();
+                    } else {
+                        BinaryNode<E> first = reverse ? node.right : node.left;
+                        if (first != null) stack.push(first, depth + 1);
+                    }
+                    break;
+                case 1:
+                    stack.advance();
+                    walker.between(node, depth);
+                    BinaryNode<E> second = reverse ? node.left : node.right;
+                    if (second != null) stack.push(second, depth + 1);
+                    break;
+                default:
+                    stack.pop();
+                    walker.exit(node, depth);
+            }
+        }
+    }
+
+    /**
+     * Breadth first traversal, left to right within each level
+     * @param start   the node that roots the subtree to walk
+     * @param visitor called once per node
+     */
+    private void levelOrder(BinaryNode<E> start, LevelVisitor<E> visitor) {
+        if (start == null)
+            return;
+        ArrayDeque<BinaryNode<E>> queue = new ArrayDeque<>();
+        queue.add(start);
+        for (int depth = 0; !queue.isEmpty(); depth++) {
+            for (int i = queue.size(); i > 0; i--) {
+                BinaryNode<E> node = queue.poll();
+                visit(depth);
+                visitor.visit(node, depth);
+                if (node.left != null) queue.add(node.left);
+                if (node.right != null) queue.add(node.right);
+            }
+        }
+    }
+
+    /**
+     * Set the entry for a depth in a list used as a path stack, dropping anything deeper
+     * @param path  nodes on the current path, indexed by depth
+     * @param depth depth of the new entry
+     * @param item  the new entry
+     */
+    private static <T> void setDepth(List<T> path, int depth, T item) {
+        if (depth < path.size()) {
+            path.subList(depth + 1, path.size()).clear();
+            path.set(depth, item);
+        } else {
+            path.add(item);
+        }
+    }
+
+    // Euler tour and sparse table built by buildLcaIndex()
+    private static class LcaIndex<E> {
+        final BinaryNode<E> root;       // Root the index was built for
+        final int modCount;             // Tree's modCount when the index was built
+        final HashMap<E, Integer> first = new HashMap<>();  // First tour position of each element
+        BinaryNode<E>[] tour;           // Nodes in Euler tour order
+        int[] depths;                   // Depth of each tour entry
+        int[][] sparse;                 // sparse[k][i] = tour position of shallowest entry in [i, i + 2^k)
+        int size;
+
+        @SuppressWarnings("unchecked")
+        LcaIndex(BinaryNode<E> root, int modCount) {
+            this.root = root;
+            this.modCount = modCount;
+            tour = (BinaryNode<E>[]) new BinaryNode<?>[16];
+            depths = new int[16];
+        }
+
+        void add(BinaryNode<E> node, int depth) {
+            if (size == tour.length) {
+                tour = Arrays.copyOf(tour, size * 2);
+                depths = Arrays.copyOf(depths, size * 2);
+            }
+            tour[size] = node;
+            depths[size] = depth;
+            size++;
+        }
+
+        void buildSparseTable() {
+            int levels = size == 0 ? 0 : 32 - Integer.numberOfLeadingZeros(size);
+            sparse = new int[levels][];
+            if (levels == 0) return;
+            sparse[0] = new int[size];
+            for (int i = 0; i < size; i++) {
+                sparse[0][i] = i;
+            }
+            for (int k = 1; k < levels; k++) {
+                int half = 1 << (k - 1);
+                int[] below = sparse[k - 1];
+                int[] row = new int[size - (1 << k) + 1];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = shallower(below[i], below[i + half]);
+                }
+                sparse[k] = row;
+            }
+        }
+
+        /**
+         * @return String representation of the ancestor, or null if either element is missing
+         */
+        String lca(E a, E b) {
+            Integer firstA = first.get(a);
+            Integer firstB = first.get(b);
+            if (firstA == null || firstB == null) {
+                return null;
+            }
+            int low = Math.min(firstA, firstB);
+            int high = Math.max(firstA, firstB);
+            int k = 31 - Integer.numberOfLeadingZeros(high - low + 1);
+            return tour[shallower(sparse[k][low], sparse[k][high - (1 << k) + 1])].toString();
+        }
+
+        private int shallower(int i, int j) {
+            return depths[i] <= depths[j] ? i : j;
+        }
+    }
+
+    // Stack of (node, depth, stage) entries kept in parallel arrays for walk()
+    private static class NodeStack<E> {
+        private BinaryNode<E>[] nodes;
+        private int[] depths;
+        private byte[] stages;      // 0 = not entered, 1 = first subtree done, 2 = both done
+        private int size;
+
+        @SuppressWarnings("unchecked")
+        NodeStack() {
+            nodes = (BinaryNode<E>[]) new BinaryNode<?>[32];
+            depths = new int[32];
+            stages = new byte[32];
+        }
+
+        void push(BinaryNode<E> node, int depth) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                depths = Arrays.copyOf(depths, size * 2);
+                stages = Arrays.copyOf(stages, size * 2);
+            }
+            nodes[size] = node;
+            depths[size] = depth;
+            stages[size] = 0;
+            size++;
+        }
+
+        void pop() {
+            nodes[--size] = null;
+        }
+
+        void advance() {
+            stages[size - 1]++;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        BinaryNode<E> peekNode() {
+            return nodes[size - 1];
+        }
+
+        int peekDepth() {
+            return depths[size - 1];
+        }
+
+        int peekStage() {
+            return stages[size - 1];
+        }
+    }
+
+    /**
+     * Width of a tree at every level, as returned by levelProfile()
+     */
+    public static class LevelProfile<E> {
+        private final int[] counts;
+        private final List<E> deepestNodes;
+
+        LevelProfile(int[] counts, List<E> deepestNodes) {
+            this.counts = counts;
+            this.deepestNodes = deepestNodes;
+        }
+
+        // @return copy of the number of nodes on each level, root level first
+        public int[] getCounts() {
+            return counts.clone();
+        }
+
+        // @return the deepest level, -1 for an empty tree
+        public int getDeepestLevel() {
+            return counts.length - 1;
+        }
+
+        // @return the elements on the deepest level, left to right
+        public List<E> getDeepestNodes() {
+            return deepestNodes;
+        }
     }
 
     // Basic node stored in unbalanced binary  trees
@@ -628,6 +2617,8 @@ public class Tree<E extends Comparable<? super E>> {
         E element;            // The data in the node
         BinaryNode<E> left;   // Left child
         BinaryNode<E> right;  // Right child
+        int height;           // Height of subtree rooted here
+        int size = 1;         // Number of nodes in subtree rooted here
 
         // Constructors
         BinaryNode(E theElement) {
@@ -0,0 +1,292 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only view of a tree saved by Tree.writeTo, reading straight from the memory mapped file
+ * Keys are decoded only when they are looked at; the one thing kept on the heap is an int per node
+ * saying where its subtree ends, built on the first search or iteration, since the preorder
+ * structure bits alone do not say where a right child starts
+ *
+ * File layout, little endian:
+ *   header    magic "TREE", format version, flags (ORDERED), key width, node count; 4 bytes each
+ *   structure 2 bits per node in preorder: has a left child, has a right child
+ *   keys      width bytes per node in preorder
+ * The structure bits keep the shape, so unordered trees come back exactly as they were saved
+ */
+public class TreeFile<E extends Comparable<? super E>> implements Iterable<E> {
+    static final int MAGIC = 0x45455254;    // "TREE" when read as bytes
+    static final int VERSION = 1;
+    static final int ORDERED = 1;           // Flag: the tree is a BST, so searches can descend
+    static final int HEADER = 20;           // Bytes before the structure bits
+
+    private final ByteBuffer buffer;
+    private final KeyCodec<E> codec;
+    private final String treeName;
+    private final int size;
+    private final boolean ordered;
+    private final int keys;     // Offset of the first key
+    private int[] end;          // end[i] = preorder position just past node i's subtree, built when first needed
+
+    private TreeFile(ByteBuffer buffer, KeyCodec<E> codec, String label) throws IOException {
+        this.buffer = buffer;
+        this.codec = codec;
+        this.treeName = label;
+        size = readHeader(buffer, codec);
+        ordered = isOrdered(buffer);
+        keys = keysOffset(size);
+    }
+
+    /**
+     * Map a saved tree for reading
+     * Complexity is O(1): pages are read from the file as they are touched
+     * @param file  written by Tree.writeTo
+     * @param codec how the keys were written
+     * @param label Name of tree
+     * @return a view over the file
+     * @throws IOException if the file cannot be read or is not a saved tree
+     */
+    public static <E extends Comparable<? super E>> TreeFile<E> open(Path file, KeyCodec<E> codec, String label)
+            throws IOException {
+        return new TreeFile<>(map(file, false, 0), codec, label);
+    }
+
+    // ******************FORMAT********************************
+
+    /**
+     * Map a whole file
+     * @param file  the file
+     * @param write true to create or replace the file with length bytes, false to read it as it is
+     * @param length size of the new file when writing
+     * @return the mapped bytes, little endian
+     */
+    static MappedByteBuffer map(Path file, boolean write, long length) throws IOException {
+        try (FileChannel channel = write
+                ? FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file, StandardOpenOption.READ)) {
+            if (!write) {
+                length = channel.size();
+            }
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map: " + length + " bytes");
+            }
+            MappedByteBuffer mapped = channel.map(write ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                    0, length);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            return mapped;
+        }
+    }
+
+    // @return bytes needed for a tree of n nodes
+    static long fileSize(int n, int width) {
+        return keysOffset(n) + (long) n * width;
+    }
+
+    // @return offset of the first key in a tree of n nodes
+    static int keysOffset(int n) {
+        return HEADER + (int) ((2L * n + 7) / 8);
+    }
+
+    static void writeHeader(ByteBuffer buffer, int n, int width, boolean ordered) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, ordered ? ORDERED : 0);
+        buffer.putInt(12, width);
+        buffer.putInt(16, n);
+    }
+
+    /**
+     * Check the header against the file and the codec
+     * @return number of nodes
+     * @throws IOException if the file is not a saved tree, or its keys are not the codec's width
+     */
+    static int readHeader(ByteBuffer buffer, KeyCodec<?> codec) throws IOException {
+        if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC) {
+            throw new IOException("not a saved tree");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("unknown tree format version " + buffer.getInt(4));
+        }
+        int width = buffer.getInt(12);
+        if (width != codec.width()) {
+            throw new IOException("keys are " + width + " bytes, codec expects " + codec.width());
+        }
+        int n = buffer.getInt(16);
+        if (n < 0 || buffer.capacity() < fileSize(n, width)) {
+            throw new IOException("saved tree is truncated");
+        }
+        return n;
+    }
+
+    static boolean isOrdered(ByteBuffer buffer) {
+        return (buffer.getInt(8) & ORDERED) != 0;
+    }
+
+    // Record which children the node at preorder position i has; the bits start out clear
+    static void setChildren(ByteBuffer buffer, int i, boolean left, boolean right) {
+        int at = HEADER + (i >>> 2);
+        int shift = 2 * (i & 3);
+        int bits = (left ? 1 : 0) | (right ? 2 : 0);
+        buffer.put(at, (byte) (buffer.get(at) | (bits << shift)));
+    }
+
+    // @return the structure bits of node i: 1 if it has a left child, plus 2 if it has a right child
+    static int children(ByteBuffer buffer, int i) {
+        return (buffer.get(HEADER + (i >>> 2)) >>> (2 * (i & 3))) & 3;
+    }
+
+    // ******************VIEW********************************
+
+    // @return number of nodes
+    public int size() {
+        return size;
+    }
+
+    // @return true if the saved tree was ordered
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * @param i preorder position of a node
+     * @return the data in the node
+     */
+    public E get(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException(i);
+        return codec.read(buffer, keys + i * codec.width());
+    }
+
+    /**
+     * Determines if x is in the saved tree
+     * Complexity for an ordered tree is O(n) on the first call, which builds the heap array of
+     * subtree ends (4 bytes per node), and O(h) after that, without decoding any keys if the codec
+     * compares in place; O(n) for an unordered tree, which needs no array
+     * @param x the item to search for
+     * @return true if found
+     */
+    public boolean contains(E x) {
+        int width = codec.width();
+        if (!ordered) {
+            for (int i = 0; i < size; i++) {
+                if (codec.compare(buffer, keys + i * width, x) == 0)
+                    return true;
+            }
+            return false;
+        }
+        int[] end = ends();
+        int i = 0;
+        while (i < size) {
+            int compareResult = codec.compare(buffer, keys + i * width, x);
+            if (compareResult == 0)
+                return true;
+            int children = children(buffer, i);
+            if (compareResult > 0) {
+                if ((children & 1) == 0)
+                    return false;
+                i = i + 1;
+            } else {
+                if ((children & 2) == 0)
+                    return false;
+                i = (children & 1) == 0 ? i + 1 : end[i + 1];
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return string displaying the tree contents as a single line, as Tree.toString2() does
+     */
+    public String toString2() {
+        if (size == 0) {
+            return treeName + " Empty tree";
+        }
+        StringBuilder sb = new StringBuilder(treeName).append(' ');
+        for (E x : this) {
+            sb.append(x).append(' ');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Builds the array of subtree ends first, as contains does, if it is not built yet
+     * @return in order iterator over the saved tree
+     */
+    public Iterator<E> iterator() {
+        int[] end = ends();
+        return new Iterator<E>() {
+            private int[] stack = new int[32];  // Preorder positions whose left side has been visited
+            private int depth;
+
+            {
+                descend(size == 0 ? -1 : 0);
+            }
+
+            public boolean hasNext() {
+                return depth > 0;
+            }
+
+            public E next() {
+                if (depth == 0)
+                    throw new NoSuchElementException();
+                int i = stack[--depth];
+                int children = children(buffer, i);
+                if ((children & 2) != 0) {
+                    descend((children & 1) == 0 ? i + 1 : end[i + 1]);
+                }
+                return get(i);
+            }
+
+            // Push i and its chain of left children
+            private void descend(int i) {
+                while (i >= 0) {
+                    if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                    }
+                    stack[depth++] = i;
+                    i = (children(buffer, i) & 1) != 0 ? i + 1 : -1;
+                }
+            }
+        };
+    }
+
+    /**
+     * Where each node's subtree ends in preorder, which is where its right child's subtree starts
+     * Built in one O(n) pass over the structure bits with an explicit stack, on first use,
+     * and kept for later calls
+     * @return end[i] = preorder position just past node i's subtree
+     */
+    private int[] ends() {
+        if (end != null) {
+            return end;
+        }
+        int[] ends = new int[size];
+        int[] stack = new int[32];
+        int[] pending = new int[32];    // children of each stacked node not yet seen
+        int depth = 0;
+        for (int i = 0; i < size; i++) {
+            if (depth > 0) pending[depth - 1]--;
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, depth * 2);
+                pending = Arrays.copyOf(pending, depth * 2);
+            }
+            int children = children(buffer, i);
+            stack[depth] = i;
+            pending[depth] = (children & 1) + (children >>> 1);
+            depth++;
+            while (depth > 0 && pending[depth - 1] == 0) {
+                ends[stack[--depth]] = i + 1;
+            }
+        }
+        end = ends;
+        return ends;
+    }
+}
@@ -0,0 +1,209 @@
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms for the public operations run on trees attached with Tree.setMetrics
+ * For each operation it keeps the number of calls, compareTo calls, nodes visited, nodes allocated
+ * and freed, the deepest stack or path reached, and a histogram of call latencies
+ * Trees only count anything when the JVM is started with -Dtree.metrics=true; otherwise the
+ * counting code is compiled away and attaching metrics is refused
+ * One TreeMetrics may be shared by several trees, from several threads
+ */
+public class TreeMetrics implements TreeMetricsMBean {
+    static final boolean ENABLED = Boolean.getBoolean("tree.metrics");
+
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+
+    /**
+     * Add one finished call to its operation's totals
+     * @param name      the operation
+     * @param probe     what the call counted
+     * @param sizeAfter number of nodes in the tree once the call returned
+     */
+    void record(String name, Probe probe, int sizeAfter) {
+        long nanos = System.nanoTime() - probe.start;
+        long freed = Math.max(0, probe.sizeBefore + probe.allocated - sizeAfter);
+        operations.computeIfAbsent(name, key -> new Operation()).add(probe, freed, nanos);
+    }
+
+    /**
+     * Copy of the totals so far, which later calls do not change
+     * @return the totals for each operation that has been called, by name
+     */
+    public Map<String, Operation> snapshot() {
+        Map<String, Operation> copy = new TreeMap<>();
+        for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().copy());
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+    // Forget everything counted so far
+    public void reset() {
+        operations.clear();
+    }
+
+    public String[] getOperationNames() {
+        return snapshot().keySet().toArray(new String[0]);
+    }
+
+    public long getTotalCalls() {
+        long calls = 0;
+        for (Operation operation : snapshot().values()) {
+            calls += operation.calls;
+        }
+        return calls;
+    }
+
+    /**
+     * @return one line per operation with its totals and latency percentiles
+     */
+    public String getReport() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Operation> entry : snapshot().entrySet()) {
+            sb.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Make these metrics readable over JMX
+     * @param name the MBean name, e.g. "trees:type=TreeMetrics,name=orders"
+     * @return the registered name
+     * @throws JMException if the name is malformed or already taken
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    public String toString() {
+        return getReport();
+    }
+
+    /**
+     * Totals for one operation
+     * Latencies are kept in buckets by power of two nanoseconds, so percentiles are rounded up
+     * to the next power of two
+     */
+    public static class Operation {
+        private static final int BUCKETS = 64;
+
+        private long calls;
+        private long comparisons;
+        private long nodesVisited;
+        private long nodesAllocated;
+        private long nodesFreed;
+        private int maxDepth;
+        private long totalNanos;
+        private long maxNanos;
+        private final long[] latency = new long[BUCKETS];   // calls taking under 2^i nanoseconds
+
+        private synchronized void add(Probe probe, long freed, long nanos) {
+            calls++;
+            comparisons += probe.comparisons;
+            nodesVisited += probe.visited;
+            nodesAllocated += probe.allocated;
+            nodesFreed += freed;
+            maxDepth = Math.max(maxDepth, probe.maxDepth);
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            latency[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos))]++;
+        }
+
+        private synchronized Operation copy() {
+            Operation copy = new Operation();
+            copy.calls = calls;
+            copy.comparisons = comparisons;
+            copy.nodesVisited = nodesVisited;
+            copy.nodesAllocated = nodesAllocated;
+            copy.nodesFreed = nodesFreed;
+            copy.maxDepth = maxDepth;
+            copy.totalNanos = totalNanos;
+            copy.maxNanos = maxNanos;
+            System.arraycopy(latency, 0, copy.latency, 0, BUCKETS);
+            return copy;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getComparisons() {
+            return comparisons;
+        }
+
+        public long getNodesVisited() {
+            return nodesVisited;
+        }
+
+        public long getNodesAllocated() {
+            return nodesAllocated;
+        }
+
+        public long getNodesFreed() {
+            return nodesFreed;
+        }
+
+        // @return deepest stack or search path reached by any call
+        public int getMaxDepth() {
+            return maxDepth;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * @param fraction between 0 and 1, e.g. 0.99
+         * @return a latency that at least that fraction of calls finished within, in nanoseconds
+         */
+        public long percentileNanos(double fraction) {
+            long target = (long) Math.ceil(fraction * calls);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += latency[i];
+                if (seen >= Math.max(target, 1)) {
+                    return Math.min(1L << i, maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        public String toString() {
+            return "calls=" + calls + " comparisons=" + comparisons + " visited=" + nodesVisited
+                    + " allocated=" + nodesAllocated + " freed=" + nodesFreed + " maxDepth=" + maxDepth
+                    + " p50=" + percentileNanos(0.5) + "ns p99=" + percentileNanos(0.99)
+                    + "ns max=" + maxNanos + "ns";
+        }
+    }
+
+    // What one call to a tree operation has counted so far
+    static final class Probe {
+        final long start = System.nanoTime();
+        final int sizeBefore;
+        long comparisons;
+        long visited;
+        long allocated;
+        int maxDepth;
+
+        Probe(int sizeBefore) {
+            this.sizeBefore = sizeBefore;
+        }
+
+        void visit(int depth) {
+            visited++;
+            if (depth > maxDepth) maxDepth = depth;
+        }
+    }
+}
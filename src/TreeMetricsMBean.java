@@ -0,0 +1,10 @@
+// Management interface for TreeMetrics, as JMX sees it
+public interface TreeMetricsMBean {
+    String[] getOperationNames();
+
+    long getTotalCalls();
+
+    String getReport();
+
+    void reset();
+}
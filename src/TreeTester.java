@@ -47,6 +47,15 @@ public class TreeTester {
         //Problem 5
         System.out.println("All paths from treeThree");
         treeThree.printAllPaths();
+        int[] largestSum = {Integer.MIN_VALUE};
+        treeThree.forEachPath(path -> {
+            int sum = 0;
+            for (int i = 0; i < path.size(); i++) {
+                sum += path.get(i);
+            }
+            largestSum[0] = Math.max(largestSum[0], sum);
+        });
+        System.out.println("Largest path sum in treeThree " + largestSum[0]);
         Integer[] list4= {21, 8, 25, 6, 7, 19, 10, 40, 43, 52, 64, 80};
         Tree<Integer> treeFour = new Tree<Integer>(list4, "treeFour", false);
 